@@ -0,0 +1,100 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.free.divde.webcam.barcode.BarCode;
+import fr.free.divde.webcam.barcode.BarCodeListener;
+import fr.free.divde.webcam.barcode.BarCodeReader;
+import fr.free.divde.webcam.image.Frame;
+import fr.free.divde.webcam.image.ImageListener;
+
+/**
+ * Measures the time to decode a frame with {@link BarCodeReader}, from the
+ * call of its image listener to the end of the decoding on its decoding
+ * thread, with and without a QR code in the frame. Scene change detection is
+ * disabled, as the same frame is given again and again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BarCodeReaderBenchmark {
+
+	@Param({ "640x480", "1280x720" })
+	private String resolution;
+
+	@Param({ "true", "false" })
+	private boolean withQRCode;
+
+	@Param({ "true", "false" })
+	private boolean regionTracking;
+
+	private Frame frame;
+	private BarCodeReader reader;
+	private ImageListener imageListener;
+
+	@Setup
+	public void setup() throws Exception {
+		frame = FrameCorpus.createFrame(resolution, withQRCode);
+		reader = new BarCodeReader();
+		reader.setSceneChangeDetection(false);
+		reader.setRegionTracking(regionTracking);
+		reader.setBarCodeListener(new BarCodeListener() {
+			@Override
+			public void barCodesDetected(List<BarCode> barCodes) {
+			}
+		});
+		imageListener = reader.getImageListener();
+	}
+
+	@TearDown
+	public void tearDown() {
+		reader.shutdown();
+	}
+
+	@Benchmark
+	public long processImage() {
+		long decodedFrames = reader.getDecodedFrames();
+		imageListener.nextFrame(frame);
+		long res;
+		while ((res = reader.getDecodedFrames()) == decodedFrames) {
+			Thread.yield();
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.free.divde.webcam.image.DataImageUrl;
+
+/**
+ * Measures the creation of data URLs from captured images, as done by
+ * createImageUrl, for each image format, and compares it with the previous
+ * implementation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataImageUrlBenchmark {
+
+	@Param({ "png", "jpg" })
+	private String format;
+
+	@Param({ "640x480", "1280x720" })
+	private String resolution;
+
+	private BufferedImage image;
+	private String mimeType;
+
+	@Setup
+	public void setup() throws Exception {
+		image = FrameCorpus.createImage(resolution, "TYPE_INT_RGB", true);
+		mimeType = "jpg".equals(format) ? "image/jpeg" : "image/" + format;
+	}
+
+	@Benchmark
+	public String imageToDataURL() throws IOException {
+		return DataImageUrl.imageToDataURL(image, format, mimeType);
+	}
+
+	/**
+	 * Data URL created as before the streaming encoder was introduced.
+	 */
+	@Benchmark
+	public String byteArrayBase64() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		byte[] imageBytes = out.toByteArray();
+		String base64 = Base64.encodeBase64String(imageBytes);
+		StringBuilder res = new StringBuilder("data:");
+		res.append(mimeType);
+		res.append(";base64,");
+		res.append(base64);
+		return res.toString();
+	}
+
+}
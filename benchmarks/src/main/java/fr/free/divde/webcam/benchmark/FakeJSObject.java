@@ -0,0 +1,247 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import netscape.javascript.JSException;
+import netscape.javascript.JSObject;
+
+/**
+ * In-memory stand-in for the JavaScript objects of a page, counting the
+ * crossings of the Java to JavaScript bridge and simulating their cost by
+ * spinning for a given time on each of them. Evaluating the key-listing and
+ * marshalling functions of {@link fr.free.divde.webcam.js.JSMarshaller}
+ * returns functions implementing them in Java.
+ */
+public class FakeJSObject extends JSObject {
+
+	private final Bridge bridge;
+	private final Map<String, Object> members = new LinkedHashMap<String, Object>();
+	private final List<Object> slots = new ArrayList<Object>();
+
+	/**
+	 * Crossing counter and cost, shared by all the objects of a page.
+	 */
+	public static final class Bridge {
+
+		private final long crossingNanos;
+		private long crossings;
+
+		public Bridge(long crossingNanos) {
+			this.crossingNanos = crossingNanos;
+		}
+
+		void cross() {
+			crossings++;
+			long end = System.nanoTime() + crossingNanos;
+			while (crossingNanos > 0 && System.nanoTime() < end) {
+				// simulated cost of the crossing
+			}
+		}
+
+		public long getCrossings() {
+			return crossings;
+		}
+
+	}
+
+	public FakeJSObject(Bridge bridge) {
+		this.bridge = bridge;
+	}
+
+	/**
+	 * Sets a member without counting a crossing, to build the page.
+	 */
+	public FakeJSObject with(String name, Object value) {
+		members.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Returns a callback object, with an fn function and the given scope.
+	 */
+	public static FakeJSObject callback(Bridge bridge, FakeJSObject scope) {
+		FakeJSObject res = new FakeJSObject(bridge).with("fn",
+				new Function(bridge));
+		if (scope != null) {
+			res.with("scope", scope);
+		}
+		return res;
+	}
+
+	@Override
+	public Object call(String methodName, Object[] args) throws JSException {
+		bridge.cross();
+		return null;
+	}
+
+	@Override
+	public Object eval(String script) throws JSException {
+		bridge.cross();
+		if (script.contains("JSON.stringify")) {
+			return new Marshaller(bridge);
+		}
+		if (script.contains("hasOwnProperty")) {
+			return new KeyLister(bridge);
+		}
+		throw new JSException("Unsupported script.");
+	}
+
+	@Override
+	public Object getMember(String name) throws JSException {
+		bridge.cross();
+		if ("length".equals(name) && !slots.isEmpty()) {
+			return slots.size();
+		}
+		return members.get(name);
+	}
+
+	@Override
+	public void setMember(String name, Object value) throws JSException {
+		bridge.cross();
+		members.put(name, value);
+	}
+
+	@Override
+	public void removeMember(String name) throws JSException {
+		bridge.cross();
+		members.remove(name);
+	}
+
+	@Override
+	public Object getSlot(int index) throws JSException {
+		bridge.cross();
+		return slots.get(index);
+	}
+
+	@Override
+	public void setSlot(int index, Object value) throws JSException {
+		bridge.cross();
+		while (slots.size() <= index) {
+			slots.add(null);
+		}
+		slots.set(index, value);
+	}
+
+	private static class Function extends FakeJSObject {
+
+		public Function(Bridge bridge) {
+			super(bridge);
+		}
+
+	}
+
+	/**
+	 * Lists the keys of the object given as this.
+	 */
+	private static final class KeyLister extends Function {
+
+		public KeyLister(Bridge bridge) {
+			super(bridge);
+		}
+
+		@Override
+		public Object call(String methodName, Object[] args) {
+			super.call(methodName, args);
+			FakeJSObject object = (FakeJSObject) args[0];
+			FakeJSObject res = new FakeJSObject(object.bridge);
+			res.slots.addAll(object.members.keySet());
+			return res;
+		}
+
+	}
+
+	/**
+	 * Serializes the object given as first argument to JSON, replacing the
+	 * callbacks by placeholders.
+	 */
+	private static final class Marshaller extends Function {
+
+		public Marshaller(Bridge bridge) {
+			super(bridge);
+		}
+
+		@Override
+		public Object call(String methodName, Object[] args) {
+			super.call(methodName, args);
+			List<Object> callbacks = new ArrayList<Object>();
+			StringBuilder json = new StringBuilder();
+			append(json, args[1], callbacks);
+			if (callbacks.isEmpty()) {
+				return json.toString();
+			}
+			FakeJSObject res = new FakeJSObject(getBridge());
+			res.slots.add(json.toString());
+			res.slots.addAll(callbacks);
+			return res;
+		}
+
+		private Bridge getBridge() {
+			return ((FakeJSObject) this).bridge;
+		}
+
+		private void append(StringBuilder json, Object value,
+				List<Object> callbacks) {
+			if (value instanceof FakeJSObject) {
+				FakeJSObject object = (FakeJSObject) value;
+				if (object.members.get("fn") instanceof Function) {
+					callbacks.add(new Function(getBridge()));
+					json.append("{\"$callback\":").append(callbacks.size())
+							.append('}');
+					return;
+				}
+				json.append('{');
+				boolean first = true;
+				for (Entry<String, Object> entry : object.members.entrySet()) {
+					if (!first) {
+						json.append(',');
+					}
+					first = false;
+					appendString(json, entry.getKey());
+					json.append(':');
+					append(json, entry.getValue(), callbacks);
+				}
+				json.append('}');
+			} else if (value instanceof String) {
+				appendString(json, (String) value);
+			} else {
+				json.append(value);
+			}
+		}
+
+		private static void appendString(StringBuilder json, String value) {
+			json.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					json.append('\\');
+				}
+				json.append(c);
+			}
+			json.append('"');
+		}
+
+	}
+
+}
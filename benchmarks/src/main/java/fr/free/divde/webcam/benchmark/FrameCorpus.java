@@ -0,0 +1,112 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.openimaj.image.ImageUtilities;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import fr.free.divde.webcam.barcode.MatrixToImageWriter;
+import fr.free.divde.webcam.image.Frame;
+
+/**
+ * Generates the frames used by the benchmarks. Each frame looks like a camera
+ * picture: a smooth gradient with some noise, so that it does not compress
+ * unrealistically well. It can contain a QR code in its center, covering half
+ * of its height. The same parameters always give the same frame.
+ */
+public final class FrameCorpus {
+
+	public static final String QR_CODE_CONTENT = "http://divde.free.fr/webcam";
+	private static final int NOISE = 16;
+
+	private FrameCorpus() {
+	}
+
+	/**
+	 * Returns the width and height of a resolution such as "640x480".
+	 */
+	public static int[] parseResolution(String resolution) {
+		String[] size = resolution.split("x");
+		return new int[] { Integer.parseInt(size[0]),
+				Integer.parseInt(size[1]) };
+	}
+
+	/**
+	 * Returns the value of a BufferedImage.TYPE_* constant from its name.
+	 */
+	public static int parseImageType(String imageType) {
+		try {
+			return BufferedImage.class.getField(imageType).getInt(null);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unknown image type: "
+					+ imageType, e);
+		}
+	}
+
+	public static BufferedImage createImage(String resolution,
+			String imageType, boolean withQRCode) throws WriterException {
+		int[] size = parseResolution(resolution);
+		BufferedImage image = new BufferedImage(size[0], size[1],
+				parseImageType(imageType));
+		Random random = new Random(0);
+		for (int y = 0; y < size[1]; y++) {
+			for (int x = 0; x < size[0]; x++) {
+				int base = 96 + 64 * x / size[0] + 32 * y / size[1];
+				int red = base + random.nextInt(NOISE);
+				int green = base + random.nextInt(NOISE);
+				int blue = base + random.nextInt(NOISE);
+				image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+			}
+		}
+		if (withQRCode) {
+			int codeSize = size[1] / 2;
+			BufferedImage code = MatrixToImageWriter
+					.toBufferedImage(createQRCode(codeSize));
+			Graphics2D graphics = image.createGraphics();
+			graphics.drawImage(code, (size[0] - codeSize) / 2,
+					(size[1] - codeSize) / 2, null);
+			graphics.dispose();
+		}
+		return image;
+	}
+
+	public static BitMatrix createQRCode(int size) throws WriterException {
+		return new QRCodeWriter().encode(QR_CODE_CONTENT,
+				BarcodeFormat.QR_CODE, size, size);
+	}
+
+	/**
+	 * Returns a captured frame, as given to the image listeners.
+	 */
+	public static Frame createFrame(String resolution, boolean withQRCode)
+			throws WriterException {
+		BufferedImage image = createImage(resolution, "TYPE_INT_RGB",
+				withQRCode);
+		return new Frame(ImageUtilities.createMBFImage(image, false), 0);
+	}
+
+}
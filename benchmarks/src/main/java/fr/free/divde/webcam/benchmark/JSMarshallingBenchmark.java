@@ -0,0 +1,168 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import netscape.javascript.JSException;
+import netscape.javascript.JSObject;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.free.divde.webcam.js.JSCallback;
+import fr.free.divde.webcam.js.JSMarshaller;
+import fr.free.divde.webcam.js.JSOptions;
+
+/**
+ * Compares the two ways of reading the parameters of a sendImage call from a
+ * page simulated with {@link FakeJSObject}: one crossing per property, as the
+ * applet used to do, and one crossing for the whole object with
+ * {@link JSMarshaller}. The crossings and calls counters are summed over the
+ * run, their ratio gives the number of crossings per call. crossingNanos is
+ * the simulated cost of each crossing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSMarshallingBenchmark {
+
+	@Param({ "0", "20000" })
+	private long crossingNanos;
+
+	private FakeJSObject.Bridge bridge;
+	private FakeJSObject window;
+	private FakeJSObject parameters;
+	private JSMarshaller marshaller;
+	private JSObject getKeys;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Crossings {
+
+		public long crossings;
+		public long calls;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			crossings = 0;
+			calls = 0;
+		}
+
+	}
+
+	@Setup
+	public void setup() {
+		bridge = new FakeJSObject.Bridge(crossingNanos);
+		window = new FakeJSObject(bridge);
+		parameters = new FakeJSObject(bridge)
+				.with("url", "uploadImage")
+				.with("format", "jpeg")
+				.with("quality", 0.8)
+				.with("headers",
+						new FakeJSObject(bridge).with("Cookie", "id=42").with(
+								"X-Requested-With", "JavaWebcamApplet"))
+				.with("callback", FakeJSObject.callback(bridge, window))
+				.with("errorCallback", FakeJSObject.callback(bridge, null));
+		marshaller = new JSMarshaller();
+		marshaller.setWindow(window);
+	}
+
+	private void count(Crossings counters, long crossingsBefore) {
+		counters.crossings += bridge.getCrossings() - crossingsBefore;
+		counters.calls++;
+	}
+
+	@Benchmark
+	public Object perProperty(Crossings counters) {
+		long before = bridge.getCrossings();
+		Object[] res = new Object[] { parameters.getMember("url"),
+				getJSProperty(parameters, "format", "png"),
+				getJSProperty(parameters, "quality", -1),
+				convertToMap((JSObject) getJSProperty(parameters, "headers",
+						null)),
+				JSCallback.resolve((JSObject) getJSProperty(parameters,
+						"callback", null), window),
+				JSCallback.resolve((JSObject) getJSProperty(parameters,
+						"errorCallback", null), window) };
+		count(counters, before);
+		return res;
+	}
+
+	@Benchmark
+	public Object marshalled(Crossings counters) {
+		long before = bridge.getCrossings();
+		JSOptions options = marshaller.read(parameters);
+		Object[] res = new Object[] { options.getString("url", null),
+				options.getString("format", "png"),
+				options.getFloat("quality", -1), options.getMap("headers"),
+				options.getCallback("callback"),
+				options.getCallback("errorCallback") };
+		count(counters, before);
+		return res;
+	}
+
+	// the per-property path, as it was in WebcamApplet
+
+	private static Object getJSProperty(JSObject object, String propertyName,
+			Object defaultValue) {
+		try {
+			Object res = object.getMember(propertyName);
+			if (res == null) {
+				return defaultValue;
+			}
+			return res;
+		} catch (JSException e) {
+			return defaultValue;
+		}
+	}
+
+	private Map<String, Object> convertToMap(JSObject jsObject) {
+		if (getKeys == null) {
+			getKeys = (JSObject) window
+					.eval("(function(){var res=[];for(var key in this){if(this.hasOwnProperty(key)){res.push(key)}}return res;})");
+		}
+		JSObject keys = (JSObject) getKeys.call("call",
+				new Object[] { jsObject });
+		int size = ((Number) keys.getMember("length")).intValue();
+		HashMap<String, Object> res = new HashMap<String, Object>(size);
+		for (int i = 0; i < size; i++) {
+			String name = (String) keys.getSlot(i);
+			res.put(name, jsObject.getMember(name));
+		}
+		return res;
+	}
+
+}
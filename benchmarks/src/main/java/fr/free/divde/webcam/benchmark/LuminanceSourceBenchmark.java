@@ -0,0 +1,89 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.free.divde.webcam.barcode.BufferedImageLuminanceSource;
+
+/**
+ * Compares the raster-direct luminance computation of
+ * {@link BufferedImageLuminanceSource} with the previous implementation based
+ * on {@link BufferedImage#getRGB}, for each image type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuminanceSourceBenchmark {
+
+	@Param({ "TYPE_INT_RGB", "TYPE_3BYTE_BGR", "TYPE_BYTE_GRAY",
+			"TYPE_USHORT_565_RGB" })
+	private String imageType;
+
+	@Param({ "640x480", "1280x720" })
+	private String resolution;
+
+	private BufferedImage image;
+
+	@Setup
+	public void setup() throws Exception {
+		image = FrameCorpus.createImage(resolution, imageType, true);
+	}
+
+	@Benchmark
+	public byte[] luminanceSource() {
+		return new BufferedImageLuminanceSource(image).getMatrix();
+	}
+
+	/**
+	 * Luminance computed as before the raster-direct path was introduced.
+	 */
+	@Benchmark
+	public byte[] getRGB() {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int area = width * height;
+		byte[] matrix = new byte[area];
+		int[] rgb = new int[area];
+		image.getRGB(0, 0, width, height, rgb, 0, width);
+		for (int i = 0; i < area; i++) {
+			int pixel = rgb[i];
+			matrix[i] = (byte) ((306 * ((pixel >> 16) & 0xFF) + 601
+					* ((pixel >> 8) & 0xFF) + 117 * (pixel & 0xFF) + 0x200) >> 10);
+		}
+		return matrix;
+	}
+
+}
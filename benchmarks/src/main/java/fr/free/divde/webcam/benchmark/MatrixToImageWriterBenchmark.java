@@ -0,0 +1,72 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.common.BitMatrix;
+
+import fr.free.divde.webcam.barcode.MatrixToImageWriter;
+
+/**
+ * Measures the rendering of QR codes to images, as done by createBarCodeUrl,
+ * in 24-bit RGB and in 1-bit images.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixToImageWriterBenchmark {
+
+	@Param({ "230", "1000" })
+	private int size;
+
+	@Param({ "TYPE_INT_RGB", "TYPE_BYTE_BINARY" })
+	private String imageType;
+
+	private BitMatrix matrix;
+	private int type;
+
+	@Setup
+	public void setup() throws Exception {
+		matrix = FrameCorpus.createQRCode(size);
+		type = FrameCorpus.parseImageType(imageType);
+	}
+
+	@Benchmark
+	public BufferedImage toBufferedImage() {
+		return MatrixToImageWriter.toBufferedImage(matrix, type);
+	}
+
+}
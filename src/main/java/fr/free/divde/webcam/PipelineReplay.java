@@ -0,0 +1,176 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import fr.free.divde.webcam.barcode.BarCode;
+import fr.free.divde.webcam.barcode.BarCodeListener;
+import fr.free.divde.webcam.barcode.BarCodeReader;
+import fr.free.divde.webcam.barcode.QRCodeFrameSource;
+import fr.free.divde.webcam.image.ImageDirectoryFrameSource;
+import fr.free.divde.webcam.image.ReplayFrameSource;
+import fr.free.divde.webcam.image.Webcam;
+import fr.free.divde.webcam.metrics.LatencyHistogram;
+import fr.free.divde.webcam.metrics.PipelineMetrics;
+
+/**
+ * Runs the capture and decoding pipeline without any camera or display, from
+ * a directory of images or from generated QR code frames, and prints the
+ * measured throughput and decoding latency.
+ *
+ * <pre>
+ * java fr.free.divde.webcam.PipelineReplay (qr|directory) [frameRate] [seconds] [width] [height] [decodeThreads] [codesPerFrame]
+ * </pre>
+ *
+ * A frame rate of 0 replays frames as fast as possible. With more than one
+ * generated QR code per frame, all the barcodes of each frame are searched.
+ */
+public class PipelineReplay {
+
+	private static final int QR_CODE_IMAGES = 10;
+
+	private final Webcam webcam;
+	private final ReplayFrameSource source;
+	private final BarCodeReader barcodeReader = new BarCodeReader();
+
+	private long decodedCodes;
+	private long measuredLatencies;
+	private long totalLatency;
+	private long maxLatency;
+
+	public PipelineReplay(ReplayFrameSource source, int width, int height) {
+		this.source = source;
+		webcam = new Webcam(width, height);
+		webcam.setFrameSource(source);
+		barcodeReader.setBarCodeListener(new BarCodeListener() {
+			@Override
+			public void barCodesDetected(List<BarCode> barCodes) {
+				webcam.reportActivity();
+				codesDetected(barCodes);
+			}
+		});
+		barcodeReader.setMetrics(webcam.getMetrics());
+		webcam.addImageListener(barcodeReader.getImageListener());
+	}
+
+	private synchronized void codesDetected(List<BarCode> barCodes) {
+		long now = System.nanoTime();
+		decodedCodes += barCodes.size();
+		if (source instanceof QRCodeFrameSource) {
+			for (BarCode barCode : barCodes) {
+				long sentTime = ((QRCodeFrameSource) source)
+						.getSentTime(barCode.getContent());
+				if (sentTime > 0) {
+					long latency = now - sentTime;
+					measuredLatencies++;
+					totalLatency += latency;
+					maxLatency = Math.max(maxLatency, latency);
+				}
+			}
+		}
+	}
+
+	public void run(long duration) throws InterruptedException {
+		long start = System.nanoTime();
+		webcam.startCapture();
+		Thread.sleep(duration);
+		webcam.stopCapture();
+		barcodeReader.shutdown();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		printResults(seconds);
+	}
+
+	private synchronized void printResults(double seconds) {
+		long frames = webcam.getCapturedFrames();
+		System.out.printf("Captured frames:   %d (%.1f frames/s)%n", frames,
+				frames / seconds);
+		System.out.printf(
+				"Capture stages:    grab %.2f ms, conversion %.2f ms, dispatch %.2f ms%n",
+				webcam.getGrabTime(), webcam.getConversionTime(),
+				webcam.getDispatchTime());
+		System.out.printf("Rate governor:     %.0f%% CPU, %d ms throttled%n",
+				webcam.getCpuUsage() * 100, webcam.getThrottledTime());
+		System.out.printf("Frame pool:        %d hits, %d misses%n", webcam
+				.getFramePool().getHits(), webcam.getFramePool().getMisses());
+		System.out.printf("Decoder:           %d delivered, %d dropped%n",
+				webcam.getDeliveredFrames(barcodeReader.getImageListener()),
+				webcam.getDroppedFrames(barcodeReader.getImageListener()));
+		System.out.printf(
+				"Decoding threads:  %d, %d frames decoded, %d unchanged, %d stale%n",
+				barcodeReader.getDecodeThreads(),
+				barcodeReader.getDecodedFrames(),
+				barcodeReader.getUnchangedFrames(),
+				barcodeReader.getStaleFrames());
+		System.out.printf("Full effort:       %d frames%n",
+				barcodeReader.getFullEffortFrames());
+		System.out.printf("Tracked region:    %d hits, %d misses%n",
+				barcodeReader.getRegionHits(), barcodeReader.getRegionMisses());
+		System.out.printf(
+				"Coarse pass:       %d hits, %d escalations (%.0f%%)%n",
+				barcodeReader.getCoarseHits(),
+				barcodeReader.getCoarseEscalations(),
+				barcodeReader.getCoarseEscalationRatio() * 100);
+		System.out.printf("Decoded codes:     %d (%.1f codes/s)%n",
+				decodedCodes, decodedCodes / seconds);
+		PipelineMetrics metrics = webcam.getMetrics();
+		System.out.printf("Decode results:    %d succeeded, %d failed%n",
+				metrics.getSucceededDecodes(), metrics.getFailedDecodes());
+		for (LatencyHistogram stage : new LatencyHistogram[] {
+				metrics.getGrab(), metrics.getConversion(),
+				metrics.getDispatch(), metrics.getDecode() }) {
+			System.out.printf(
+					"Stage %-12s %d, mean %.2f ms, p95 %.2f ms, max %.2f ms%n",
+					stage.getName() + ":", stage.getCount(), stage.getMean(),
+					stage.getPercentile95(), stage.getMax());
+		}
+		if (measuredLatencies > 0) {
+			System.out.printf("Decoding latency:  %.2f ms average, %.2f ms max%n",
+					totalLatency / 1e6 / measuredLatencies, maxLatency / 1e6);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 1) {
+			System.err
+					.println("Usage: PipelineReplay (qr|directory) [frameRate] [seconds] [width] [height] [decodeThreads] [codesPerFrame]");
+			System.exit(1);
+		}
+		ReplayFrameSource source;
+		int codesPerFrame = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+		if ("qr".equals(args[0])) {
+			source = new QRCodeFrameSource(QR_CODE_IMAGES, codesPerFrame);
+		} else {
+			source = new ImageDirectoryFrameSource(new File(args[0]));
+		}
+		source.setFrameRate(args.length > 1 ? Double.parseDouble(args[1]) : 0);
+		long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+		int width = args.length > 3 ? Integer.parseInt(args[3]) : 640;
+		int height = args.length > 4 ? Integer.parseInt(args[4]) : 480;
+		PipelineReplay replay = new PipelineReplay(source, width, height);
+		if (args.length > 5) {
+			replay.barcodeReader.setDecodeThreads(Integer.parseInt(args[5]));
+		}
+		replay.barcodeReader.setMultipleBarCodes(codesPerFrame > 1);
+		replay.run(TimeUnit.SECONDS.toMillis(seconds));
+	}
+
+}
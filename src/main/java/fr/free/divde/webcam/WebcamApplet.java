@@ -18,43 +18,55 @@
 
 package fr.free.divde.webcam;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.StringWriter;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.imageio.ImageIO;
 import javax.swing.JApplet;
-import javax.swing.SwingUtilities;
 
 import lombok.Delegate;
 import lombok.Getter;
-import lombok.Setter;
-import netscape.javascript.JSException;
 import netscape.javascript.JSObject;
 
-import org.apache.commons.io.IOUtils;
-import com.google.zxing.BarcodeFormat;
+import com.google.zxing.ResultPoint;
 import com.google.zxing.WriterException;
-import com.google.zxing.common.BitMatrix;
-import com.google.zxing.qrcode.QRCodeWriter;
 
+import fr.free.divde.webcam.barcode.BarCode;
+import fr.free.divde.webcam.barcode.BarCodeDeduplicator;
 import fr.free.divde.webcam.barcode.BarCodeListener;
 import fr.free.divde.webcam.barcode.BarCodeReader;
-import fr.free.divde.webcam.barcode.MatrixToImageWriter;
+import fr.free.divde.webcam.barcode.BarCodeUrlCache;
+import fr.free.divde.webcam.image.BurstCapture;
 import fr.free.divde.webcam.image.DataImageUrl;
+import fr.free.divde.webcam.image.EncodedFrameCache;
+import fr.free.divde.webcam.image.Frame;
 import fr.free.divde.webcam.image.ImageCapture;
 import fr.free.divde.webcam.image.ImageListener;
+import fr.free.divde.webcam.image.ImageSubscription;
 import fr.free.divde.webcam.image.Webcam;
 import fr.free.divde.webcam.image.WebcamView;
+import fr.free.divde.webcam.js.JSCallback;
+import fr.free.divde.webcam.js.JSEventQueue;
+import fr.free.divde.webcam.js.JSMarshaller;
+import fr.free.divde.webcam.js.JSOptions;
+import fr.free.divde.webcam.js.JSONValue;
+import fr.free.divde.webcam.metrics.PipelineMetrics;
+import fr.free.divde.webcam.upload.ImageUploader;
+import fr.free.divde.webcam.upload.MjpegStreamer;
+import fr.free.divde.webcam.upload.UploadCallback;
 
 public class WebcamApplet extends JApplet {
 	private static final long serialVersionUID = 3213530161234307400L;
+	private static final int BAR_CODE_URL_CACHE_SIZE = 32;
+	private static final int SAME_CONTENT_CACHE_SIZE = 16;
+	private static final long SAME_CONTENT_DELAY = 500;
+	private static final int UPLOAD_THREADS = 2;
+	private static final float PREVIEW_FRAME_RATE = 30;
+	private static final float DECODE_FRAME_RATE = 10;
 
 	@Delegate
 	private Webcam webcam;
@@ -63,17 +75,25 @@ public class WebcamApplet extends JApplet {
 	private BarCodeReader barcodeReader = new BarCodeReader();
 	private BarCodeListener barcodeListener = initBarCodeListener();
 	private ImageCapture imageCapture = new ImageCapture();
+	private ImageUploader imageUploader = new ImageUploader(UPLOAD_THREADS);
+	private BurstCapture burstCapture;
+	private ImageSubscription previewSubscription = new ImageSubscription(
+			PREVIEW_FRAME_RATE);
+	private ImageSubscription decodeSubscription = new ImageSubscription(
+			DECODE_FRAME_RATE);
+	private MjpegStreamer streamer;
+	private BarCodeUrlCache barCodeUrlCache = new BarCodeUrlCache(
+			BAR_CODE_URL_CACHE_SIZE);
+	private BarCodeDeduplicator barCodeDeduplicator = new BarCodeDeduplicator(
+			SAME_CONTENT_CACHE_SIZE, SAME_CONTENT_DELAY);
 
 	private volatile JSObject window;
-	private volatile JSObject getKeys;
+	private final JSEventQueue eventQueue = new JSEventQueue();
+	private final JSMarshaller marshaller = new JSMarshaller();
 
 	@Getter
-	@Setter
-	private volatile long sameContentDelay = 500;
-
-	@Getter
-	@Setter
 	private volatile JSObject barCodeCallback;
+	private volatile JSCallback resolvedBarCodeCallback;
 
 	@Getter
 	private volatile String lastCodeBar = "";
@@ -89,15 +109,42 @@ public class WebcamApplet extends JApplet {
 		}
 		add(webcamView);
 		webcam = new Webcam(this.getWidth(), this.getHeight());
-		webcam.addCaptureListener(webcamView.getCaptureListener());
+		String previewFrameRate = getParameter("previewFrameRate");
+		if (previewFrameRate != null) {
+			previewSubscription.setMaxFrameRate(Float
+					.parseFloat(previewFrameRate));
+		}
+		webcam.addCaptureListener(webcamView.getCaptureListener(),
+				previewSubscription);
+		PipelineMetrics metrics = webcam.getMetrics();
+		webcamView.setMetrics(metrics);
+		eventQueue.setMetrics(metrics);
+		barcodeReader.setMetrics(metrics);
+		try {
+			metrics.register("webcam-" + System.identityHashCode(this));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 		barcodeReader.setBarCodeListener(barcodeListener);
-		webcam.addImageListener(barcodeReader.getImageListener());
+		String decodeThreads = getParameter("decodeThreads");
+		if (decodeThreads != null) {
+			barcodeReader.setDecodeThreads(Integer.parseInt(decodeThreads));
+		}
+		String decodeFrameRate = getParameter("decodeFrameRate");
+		if (decodeFrameRate != null) {
+			decodeSubscription.setMaxFrameRate(Float
+					.parseFloat(decodeFrameRate));
+		}
+		webcam.addImageListener(barcodeReader.getImageListener(),
+				decodeSubscription);
 		webcam.addImageListener(imageCapture.getImageListener());
 
 		String initEval = getParameter("initEval");
 		synchronized (JSObject.class) {
 			try {
 				window = (JSObject) JSObject.getWindow(this);
+				eventQueue.setWindow(window);
+				marshaller.setWindow(window);
 				if (initEval != null) {
 					window.eval(initEval);
 				}
@@ -112,7 +159,17 @@ public class WebcamApplet extends JApplet {
 
 	@Override
 	public void destroy() {
+		cancelBurst();
+		stopStreaming();
 		webcam.stopCapture();
+		barcodeReader.shutdown();
+		imageUploader.shutdown();
+		imageCapture.shutdown();
+		try {
+			webcam.getMetrics().unregister();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 		String destroyEval = getParameter("destroyEval");
 		if (window != null && destroyEval != null) {
 			synchronized (JSObject.class) {
@@ -125,176 +182,584 @@ public class WebcamApplet extends JApplet {
 		}
 	}
 
+	/**
+	 * Returns the maximum number of frames per second painted in the view, 0
+	 * meaning every captured frame.
+	 */
+	public float getPreviewFrameRate() {
+		return previewSubscription.getMaxFrameRate();
+	}
+
+	public void setPreviewFrameRate(float previewFrameRate) {
+		previewSubscription.setMaxFrameRate(previewFrameRate);
+	}
+
+	/**
+	 * Returns the maximum number of frames per second given to the barcode
+	 * reader, 0 meaning every captured frame.
+	 */
+	public float getDecodeFrameRate() {
+		return decodeSubscription.getMaxFrameRate();
+	}
+
+	public void setDecodeFrameRate(float decodeFrameRate) {
+		decodeSubscription.setMaxFrameRate(decodeFrameRate);
+	}
+
+	public int getDecodeThreads() {
+		return barcodeReader.getDecodeThreads();
+	}
+
+	public void setDecodeThreads(int decodeThreads) {
+		barcodeReader.setDecodeThreads(decodeThreads);
+	}
+
+	/**
+	 * Configures the barcode reader. All the properties of the given object
+	 * are optional: formats and fullEffortFormats (comma-separated lists of
+	 * ZXing format names such as "QR_CODE,EAN_13,CODE_128"), characterSet,
+	 * fullEffortInterval, multipleBarCodes, decodeThreads, regionTracking,
+	 * coarseScale, sceneChangeDetection and sceneChangeThreshold.
+	 */
+	public void configureBarCodeReader(JSObject parameters) {
+		JSOptions options = marshaller.read(parameters);
+		String formats = options.getString("formats", null);
+		if (formats != null) {
+			barcodeReader.setFormats(BarCodeReader.parseFormats(formats));
+		}
+		String fullEffortFormats = options.getString("fullEffortFormats", null);
+		if (fullEffortFormats != null) {
+			barcodeReader.setFullEffortFormats(BarCodeReader
+					.parseFormats(fullEffortFormats));
+		}
+		String characterSet = options.getString("characterSet", null);
+		if (characterSet != null) {
+			barcodeReader.setCharacterSet(characterSet);
+		}
+		Number fullEffortInterval = options.getNumber("fullEffortInterval");
+		if (fullEffortInterval != null) {
+			barcodeReader.setFullEffortInterval(fullEffortInterval.intValue());
+		}
+		Number decodeThreads = options.getNumber("decodeThreads");
+		if (decodeThreads != null) {
+			barcodeReader.setDecodeThreads(decodeThreads.intValue());
+		}
+		Boolean multipleBarCodes = options.getBoolean("multipleBarCodes");
+		if (multipleBarCodes != null) {
+			barcodeReader.setMultipleBarCodes(multipleBarCodes);
+		}
+		Boolean regionTracking = options.getBoolean("regionTracking");
+		if (regionTracking != null) {
+			barcodeReader.setRegionTracking(regionTracking);
+		}
+		Number coarseScale = options.getNumber("coarseScale");
+		if (coarseScale != null) {
+			barcodeReader.setCoarseScale(coarseScale.intValue());
+		}
+		Boolean sceneChangeDetection = options
+				.getBoolean("sceneChangeDetection");
+		if (sceneChangeDetection != null) {
+			barcodeReader.setSceneChangeDetection(sceneChangeDetection);
+		}
+		Number sceneChangeThreshold = options.getNumber("sceneChangeThreshold");
+		if (sceneChangeThreshold != null) {
+			barcodeReader.setSceneChangeThreshold(sceneChangeThreshold
+					.floatValue());
+		}
+	}
+
+	/**
+	 * Sets the callback called with the detected barcodes, followed by the
+	 * time of the detection. By default, it receives the content of the
+	 * barcode found in the frame, as a string. If multipleBarCodes is enabled
+	 * (see {@link #configureBarCodeReader(JSObject)}), it receives an array
+	 * with all the barcodes of the frame, as objects with the content, format
+	 * and points properties, each point having x and y properties. Barcodes
+	 * already detected less than sameContentDelay before are left out, and
+	 * the callback is not called if no barcode is left. The properties of the
+	 * callback are read once, here.
+	 */
+	public void setBarCodeCallback(JSObject barCodeCallback) {
+		resolvedBarCodeCallback = JSCallback.resolve(barCodeCallback, window);
+		this.barCodeCallback = barCodeCallback;
+	}
+
 	private BarCodeListener initBarCodeListener() {
 		return new BarCodeListener() {
 			@Override
-			public void barCodeDetected(String content) {
-				boolean sameContent = lastCodeBar.equals(content);
-				if (!sameContent) {
-					lastCodeBar = content;
-				}
+			public void barCodesDetected(List<BarCode> barCodes) {
+				webcam.reportActivity();
 				long now = System.currentTimeMillis();
-				long timeDifference = now - lastDetectionTime;
+				lastCodeBar = joinContents(barCodes);
 				lastDetectionTime = now;
-				if (barCodeCallback != null
-						&& (!sameContent || timeDifference > sameContentDelay)) {
-					callJSLater(barCodeCallback, content, now);
+				JSCallback callback = resolvedBarCodeCallback;
+				if (callback == null) {
+					return;
+				}
+				// filtered here, on the decoding thread, so that repeated
+				// detections cost nothing on the event dispatch thread
+				List<BarCode> newBarCodes = barCodeDeduplicator.filter(
+						barCodes, now);
+				if (newBarCodes.isEmpty()) {
+					return;
+				}
+				if (barcodeReader.isMultipleBarCodes()) {
+					// the whole array is created in JavaScript from its JSON
+					// description, instead of one call for each property of
+					// each barcode
+					eventQueue.post(callback, new JSONValue(
+							barCodesToJSON(newBarCodes)), now);
+				} else {
+					eventQueue.post(callback, newBarCodes.get(0).getContent(),
+							now);
 				}
-
 			}
 		};
 	}
 
-	private void callJS(JSObject callbackObject, Object... args) {
-		synchronized (JSObject.class) {
-			try {
-				JSObject function = (JSObject) getJSProperty(callbackObject,
-						"fn", null);
-				JSObject scope = (JSObject) getJSProperty(callbackObject,
-						"scope", window);
-				JSObject lastArg = (JSObject) getJSProperty(callbackObject,
-						"arg", null);
-				Object[] callArgs = new Object[args.length + 2];
-				callArgs[0] = scope;
-				System.arraycopy(args, 0, callArgs, 1, args.length);
-				callArgs[callArgs.length - 1] = lastArg;
-				function.call("call", callArgs);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+	/**
+	 * Returns the time in milliseconds during which the same barcodes are
+	 * not reported again if they keep being detected.
+	 */
+	public long getSameContentDelay() {
+		return barCodeDeduplicator.getDelay();
+	}
 
-		}
+	public void setSameContentDelay(long sameContentDelay) {
+		barCodeDeduplicator.setDelay(sameContentDelay);
 	}
 
-	private static Object getJSProperty(JSObject object, String propertyName,
-			Object defaultValue) {
-		try {
-			Object res = object.getMember(propertyName);
-			if (res == null) {
-				return defaultValue;
+	/**
+	 * Returns the number of different barcode contents remembered to filter
+	 * out repeated detections. It should be at least the number of barcodes
+	 * which can be in view together.
+	 */
+	public int getSameContentCacheSize() {
+		return barCodeDeduplicator.getMaxEntries();
+	}
+
+	public void setSameContentCacheSize(int sameContentCacheSize) {
+		barCodeDeduplicator.setMaxEntries(sameContentCacheSize);
+	}
+
+	/**
+	 * Returns the number of detected barcodes not reported to the barcode
+	 * callback because the same content was detected recently.
+	 */
+	public long getSuppressedBarCodeEvents() {
+		return barCodeDeduplicator.getSuppressedEvents();
+	}
+
+	private static String joinContents(List<BarCode> barCodes) {
+		if (barCodes.size() == 1) {
+			return barCodes.get(0).getContent();
+		}
+		StringBuilder res = new StringBuilder();
+		for (BarCode barCode : barCodes) {
+			if (res.length() > 0) {
+				res.append('\n');
 			}
-			return res;
-		} catch (JSException e) {
-			return defaultValue;
+			res.append(barCode.getContent());
 		}
+		return res.toString();
 	}
 
-	private Map<String, Object> convertToMap(JSObject jsObject) {
-		if (getKeys == null) {
-			getKeys = (JSObject) window
-					.eval("(function(){var res=[];for(var key in this){if(this.hasOwnProperty(key)){res.push(key)}}return res;})");
-		}
-		JSObject keys = (JSObject) getKeys.call("call",
-				new Object[] { jsObject });
-		int size = ((Number) keys.getMember("length")).intValue();
-		HashMap<String, Object> res = new HashMap<String, Object>(size);
-		for (int i = 0; i < size; i++) {
-			String name = (String) keys.getSlot(i);
-			res.put(name, jsObject.getMember(name));
+	/**
+	 * Converts the given barcodes to a JSON array of objects with the content,
+	 * format and points properties, each point having x and y properties.
+	 */
+	private static String barCodesToJSON(List<BarCode> barCodes) {
+		StringBuilder res = new StringBuilder(64 * barCodes.size());
+		res.append('[');
+		for (int i = 0; i < barCodes.size(); i++) {
+			BarCode barCode = barCodes.get(i);
+			if (i > 0) {
+				res.append(',');
+			}
+			res.append("{\"content\":");
+			appendJSONString(res, barCode.getContent());
+			res.append(",\"format\":");
+			appendJSONString(res, barCode.getFormat().toString());
+			res.append(",\"points\":[");
+			ResultPoint[] points = barCode.getPoints();
+			for (int j = 0; j < points.length; j++) {
+				if (j > 0) {
+					res.append(',');
+				}
+				if (points[j] == null) {
+					res.append("null");
+				} else {
+					res.append("{\"x\":").append(points[j].getX())
+							.append(",\"y\":").append(points[j].getY())
+							.append('}');
+				}
+			}
+			res.append("]}");
 		}
-		return res;
+		res.append(']');
+		return res.toString();
 	}
 
-	private Map<String, Object> getJSMapProperty(JSObject object,
-			String propertyName) {
-		JSObject value = (JSObject) getJSProperty(object, propertyName, null);
-		if (value != null) {
-			return convertToMap(value);
+	private static void appendJSONString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+				// 0x2028 and 0x2029 are line terminators in JavaScript, which
+				// is evaluating the result
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
 		}
-		return new HashMap<String, Object>();
+		builder.append('"');
+	}
+
+	/**
+	 * Returns the counters and the latency of each stage of the pipeline, as a
+	 * JSON string (see {@link PipelineMetrics#getStats()}).
+	 */
+	public String getStats() {
+		return webcam.getMetrics().getStats();
 	}
 
-	private static void setHeaders(URLConnection urlConnection,
-			Map<String, Object> headers) {
+	/**
+	 * Returns the number of events sent to JavaScript callbacks.
+	 */
+	public long getSentJSEvents() {
+		return eventQueue.getSentEvents();
+	}
+
+	/**
+	 * Returns the number of calls made to send the events to JavaScript,
+	 * lower than {@link #getSentJSEvents()} when events are coalesced.
+	 */
+	public long getJSCrossings() {
+		return eventQueue.getCrossings();
+	}
+
+	private static Map<String, String> getHeaders(Map<String, Object> headers) {
+		Map<String, String> res = new HashMap<String, String>(headers.size());
 		for (Entry<String, Object> entry : headers.entrySet()) {
-			urlConnection.setRequestProperty(entry.getKey().toLowerCase(),
-					entry.getValue().toString());
+			res.put(entry.getKey().toLowerCase(), entry.getValue().toString());
 		}
+		return res;
 	}
 
-	private void callJSLater(final JSObject callbackObject,
-			final Object... args) {
-		SwingUtilities.invokeLater(new Runnable() {
+	/**
+	 * Uploads the next frame to the given url, in the given format and
+	 * optional quality (from 0 to 1, for lossy formats). The callback is
+	 * called with the response, and the optional errorCallback is called with
+	 * "busy" and the number of pending uploads if too many uploads are already
+	 * pending, or with "error" and a message if the upload failed after all
+	 * the retries.
+	 */
+	public void sendImage(JSObject parameters) throws MalformedURLException {
+		JSOptions options = marshaller.read(parameters);
+		final URL url = new URL(getDocumentBase(),
+				options.getString("url", null));
+		final String format = options.getString("format", "png");
+		final float quality = getQuality(options);
+		final Map<String, String> headers = getHeaders(options
+				.getMap("headers"));
+		final JSCallback callback = options.getCallback("callback");
+		final JSCallback errorCallback = options.getCallback("errorCallback");
+		imageCapture.captureImage(new ImageListener() {
 			@Override
-			public void run() {
-				callJS(callbackObject, args);
+			public void nextFrame(Frame frame) {
+				uploadFrame(frame, url, format, quality, headers, callback,
+						errorCallback);
 			}
-		});
+		}, format, quality);
 	}
 
-	public void sendImage(JSObject parameters) {
-		final String url = (String) parameters.getMember("url");
-		final String format = (String) getJSProperty(parameters, "format",
-				"png");
-		final Map<String, Object> headers = getJSMapProperty(parameters,
-				"headers");
-		final JSObject callback = (JSObject) getJSProperty(parameters,
-				"callback", null);
-		imageCapture.captureImage(new ImageListener() {
-			@Override
-			public void nextFrame(BufferedImage image) {
+	private static float getQuality(JSOptions options) {
+		return options.getFloat("quality", DataImageUrl.DEFAULT_QUALITY);
+	}
+
+	/**
+	 * Uploads the given frame, and calls the callback with the response
+	 * followed by callbackArgs, or the error callback as described in
+	 * {@link #sendImage(JSObject)}. The frame is encoded straight to the
+	 * connection, unless its compressed image is shared with other requests.
+	 */
+	private void uploadFrame(Frame frame, URL url, String format,
+			float quality, Map<String, String> headers,
+			final JSCallback callback, final JSCallback errorCallback,
+			final Object... callbackArgs) {
+		boolean queued = false;
+		if (!imageUploader.isFull()) {
+			UploadCallback uploadCallback = new UploadCallback() {
+				@Override
+				public void uploadSucceeded(String response) {
+					Object[] args = new Object[callbackArgs.length + 1];
+					args[0] = response;
+					System.arraycopy(callbackArgs, 0, args, 1,
+							callbackArgs.length);
+					eventQueue.post(callback, args);
+				}
+
+				@Override
+				public void uploadFailed(Exception exception) {
+					reportError(errorCallback, exception);
+				}
+			};
+			EncodedFrameCache encodedFrameCache = imageCapture
+					.getEncodedFrameCache();
+			if (encodedFrameCache.isShared(frame, format, quality)) {
+				byte[] image;
 				try {
-					URL urlObject = new URL(getDocumentBase(), url);
-					URLConnection connection = urlObject.openConnection();
-					connection.setDoOutput(true);
-					setHeaders(connection, headers);
-					if (connection.getRequestProperty("content-type") == null) {
-						// default content type
-						connection.setRequestProperty("content-type", "image/"
-								+ format);
-					}
-					OutputStream out = connection.getOutputStream();
-					ImageIO.write(image, format, out);
-					out.flush();
-					out.close();
-					if (callback != null) {
-						StringWriter response = new StringWriter();
-						IOUtils.copy(connection.getInputStream(), response,
-								"UTF-8");
-						callJS(callback, response.toString());
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
+					image = encodedFrameCache.getEncodedImage(frame, format,
+							quality);
+				} catch (IOException e) {
+					reportError(errorCallback, e);
+					return;
 				}
+				queued = imageUploader.upload(image, url, format, headers,
+						uploadCallback);
+			} else {
+				queued = imageUploader.upload(frame, url, format, quality,
+						headers, uploadCallback);
 			}
-		});
+		}
+		if (!queued) {
+			eventQueue.post(errorCallback, "busy",
+					imageUploader.getPendingUploads());
+		}
+	}
+
+	private void reportError(JSCallback errorCallback, Exception exception) {
+		exception.printStackTrace();
+		eventQueue.post(errorCallback, "error", exception.getMessage());
+	}
+
+	public int getUploadThreads() {
+		return imageUploader.getUploadThreads();
+	}
+
+	public void setUploadThreads(int uploadThreads) {
+		imageUploader.setUploadThreads(uploadThreads);
+	}
+
+	public int getMaxPendingUploads() {
+		return imageUploader.getMaxPendingUploads();
+	}
+
+	public void setMaxPendingUploads(int maxPendingUploads) {
+		imageUploader.setMaxPendingUploads(maxPendingUploads);
+	}
+
+	public int getUploadRetries() {
+		return imageUploader.getMaxRetries();
+	}
+
+	public void setUploadRetries(int uploadRetries) {
+		imageUploader.setMaxRetries(uploadRetries);
+	}
+
+	public int getPendingUploads() {
+		return imageUploader.getPendingUploads();
 	}
 
 	public void createImageUrl(JSObject parameters) {
-		final String mimeType = (String) getJSProperty(parameters, "mimeType",
-				"image/png");
-		final String format = (String) getJSProperty(parameters, "format",
-				"png");
-		final JSObject callback = (JSObject) getJSProperty(parameters,
-				"callback", null);
+		JSOptions options = marshaller.read(parameters);
+		final String mimeType = options.getString("mimeType", "image/png");
+		final String format = options.getString("format", "png");
+		final float quality = getQuality(options);
+		final JSCallback callback = options.getCallback("callback");
 		imageCapture.captureImage(new ImageListener() {
 			@Override
-			public void nextFrame(BufferedImage image) {
+			public void nextFrame(Frame frame) {
 				try {
-					String res = DataImageUrl.imageToDataURL(image, format,
-							mimeType);
-					callJS(callback, res);
+					eventQueue.post(callback,
+							createDataUrl(frame, format, quality, mimeType));
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
 			}
-		});
+		}, format, quality);
+	}
+
+	/**
+	 * Returns the data URL of the given frame, encoded straight into the URL
+	 * unless its compressed image is shared with other requests.
+	 */
+	private String createDataUrl(Frame frame, String format, float quality,
+			String mimeType) throws IOException {
+		EncodedFrameCache encodedFrameCache = imageCapture
+				.getEncodedFrameCache();
+		if (encodedFrameCache.isShared(frame, format, quality)) {
+			return DataImageUrl.bytesToDataURL(
+					encodedFrameCache.getEncodedImage(frame, format, quality),
+					mimeType);
+		}
+		return DataImageUrl.imageToDataURL(frame.getBufferedImage(), format,
+				quality, mimeType);
+	}
+
+	/**
+	 * Captures count frames (5 by default), separated by interval
+	 * milliseconds (200 by default) between their capture times, replacing
+	 * any burst in progress. If url
+	 * is given, each frame is uploaded as with {@link #sendImage(JSObject)},
+	 * and the callback is called with the response and the index of the
+	 * frame. Otherwise, the callback is called with the data URL of each
+	 * frame, as with {@link #createImageUrl(JSObject)}, and its index. Errors
+	 * are reported to the optional errorCallback, as for sendImage.
+	 */
+	public synchronized void captureBurst(JSObject parameters)
+			throws MalformedURLException {
+		JSOptions options = marshaller.read(parameters);
+		int count = options.getInt("count", 5);
+		long interval = options.getLong("interval", 200);
+		String urlString = options.getString("url", null);
+		final URL url = urlString != null ? new URL(getDocumentBase(),
+				urlString) : null;
+		final String format = options.getString("format", "png");
+		final String mimeType = options.getString("mimeType", "image/"
+				+ format);
+		final float quality = getQuality(options);
+		final Map<String, String> headers = getHeaders(options
+				.getMap("headers"));
+		final JSCallback callback = options.getCallback("callback");
+		final JSCallback errorCallback = options.getCallback("errorCallback");
+		cancelBurst();
+		burstCapture = new BurstCapture(webcam, count, interval,
+				new ImageListener() {
+					private int index;
+
+					@Override
+					public void nextFrame(Frame frame) {
+						int frameIndex = index++;
+						if (url != null) {
+							uploadFrame(frame, url, format, quality, headers,
+									callback, errorCallback, frameIndex);
+							return;
+						}
+						try {
+							eventQueue.post(callback,
+									createDataUrl(frame, format, quality,
+											mimeType), frameIndex);
+						} catch (Exception e) {
+							reportError(errorCallback, e);
+						}
+					}
+				});
+		burstCapture.start();
+	}
+
+	public synchronized void cancelBurst() {
+		if (burstCapture != null) {
+			burstCapture.cancel();
+			burstCapture = null;
+		}
+	}
+
+	/**
+	 * Starts streaming frames to the given url as a multipart MJPEG body,
+	 * replacing any stream in progress. The optional maxFrameRate limits the
+	 * number of frames sent per second; frames are also skipped when the
+	 * connection cannot keep up. The callback is called with the response
+	 * once the stream is stopped with {@link #stopStreaming()}, and the
+	 * optional errorCallback is called with "error" and a message if the
+	 * stream fails.
+	 */
+	public synchronized void startStreaming(JSObject parameters)
+			throws MalformedURLException {
+		JSOptions options = marshaller.read(parameters);
+		URL url = new URL(getDocumentBase(),
+				options.getString("url", null));
+		Map<String, String> headers = getHeaders(options.getMap("headers"));
+		float maxFrameRate = options.getFloat("maxFrameRate", 0);
+		final JSCallback callback = options.getCallback("callback");
+		final JSCallback errorCallback = options.getCallback("errorCallback");
+		stopStreaming();
+		streamer = new MjpegStreamer(webcam, url, headers,
+				imageUploader.getExecutor(), new UploadCallback() {
+					@Override
+					public void uploadSucceeded(String response) {
+						eventQueue.post(callback, response);
+					}
+
+					@Override
+					public void uploadFailed(Exception exception) {
+						reportError(errorCallback, exception);
+					}
+				});
+		streamer.setMaxFrameRate(maxFrameRate);
+		streamer.start();
+	}
+
+	/**
+	 * Stops the stream in progress, if any. Returns without waiting for the
+	 * server: the stream is ended on an upload thread, and its callback is
+	 * then called with the response.
+	 */
+	public synchronized void stopStreaming() {
+		if (streamer != null) {
+			streamer.close();
+			streamer = null;
+		}
+	}
+
+	/**
+	 * Returns the number of frames sent by the current stream.
+	 */
+	public synchronized long getStreamedFrames() {
+		return streamer != null ? streamer.getSentFrames() : 0;
+	}
+
+	/**
+	 * Returns the number of frames skipped by the current stream, either to
+	 * respect its maximum frame rate or because the connection was too slow.
+	 */
+	public synchronized long getSkippedStreamFrames() {
+		return streamer != null ? streamer.getSkippedFrames()
+				+ webcam.getDroppedFrames(streamer) : 0;
 	}
 
 	public String createBarCodeUrl(JSObject parameters) throws IOException,
 			WriterException {
-		final String content = (String) parameters.getMember("content");
-		final int width = (Integer) getJSProperty(parameters, "width", 230);
-		final int height = (Integer) getJSProperty(parameters, "height", 230);
-		final String mimeType = (String) getJSProperty(parameters, "mimeType",
-				"image/jpeg");
-		final String format = (String) getJSProperty(parameters, "format",
-				"jpg");
-		QRCodeWriter writer = new QRCodeWriter();
-		BitMatrix result = writer.encode(content, BarcodeFormat.QR_CODE, width,
-				height);
-		BufferedImage image = MatrixToImageWriter.toBufferedImage(result);
-		return DataImageUrl.imageToDataURL(image, format, mimeType);
+		JSOptions options = marshaller.read(parameters);
+		final String content = options.getString("content", null);
+		final int width = options.getInt("width", 230);
+		final int height = options.getInt("height", 230);
+		final String mimeType = options.getString("mimeType", "image/jpeg");
+		final String format = options.getString("format", "jpg");
+		final boolean binary = Boolean.TRUE.equals(options
+				.getBoolean("binary"));
+		return barCodeUrlCache.getUrl(content, width, height, format,
+				mimeType, binary);
+	}
+
+	/**
+	 * Sets the maximum number of data URLs returned by createBarCodeUrl which
+	 * are kept in cache, 0 to disable the cache.
+	 */
+	public void setBarCodeUrlCacheSize(int size) {
+		barCodeUrlCache.setMaxEntries(size);
+	}
+
+	public int getBarCodeUrlCacheSize() {
+		return barCodeUrlCache.getMaxEntries();
+	}
+
+	/**
+	 * Returns the fraction of the calls of createBarCodeUrl which were
+	 * answered from the cache.
+	 */
+	public double getBarCodeUrlCacheHitRate() {
+		return barCodeUrlCache.getHitRate();
+	}
+
+	public long getBarCodeUrlCacheHits() {
+		return barCodeUrlCache.getHits();
+	}
+
+	public long getBarCodeUrlCacheMisses() {
+		return barCodeUrlCache.getMisses();
 	}
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import lombok.Getter;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+/**
+ * Barcode found in a frame: its content, its format and the position of its
+ * result points in the frame (for QR codes, the centers of the finder
+ * patterns).
+ */
+@Getter
+public final class BarCode {
+
+	private final String content;
+	private final BarcodeFormat format;
+	private final ResultPoint[] points;
+
+	public BarCode(String content, BarcodeFormat format, ResultPoint[] points) {
+		this.content = content;
+		this.format = format;
+		this.points = points != null ? points : new ResultPoint[0];
+	}
+
+	public BarCode(Result result) {
+		this(result.getText(), result.getBarcodeFormat(), result
+				.getResultPoints());
+	}
+
+	@Override
+	public String toString() {
+		return format + ":" + content;
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * Filters out the detections of barcodes which were already detected
+ * recently, so that a barcode staying in front of the camera is only reported
+ * once. The time of the last detection of each content is kept in a bounded
+ * cache: a content is reported again only if it was not detected for more
+ * than the delay. Each barcode of a frame is checked separately, so several
+ * barcodes in view, alternately or together and in any order, are each
+ * reported once, up to the size of the cache. The least recently detected
+ * content is forgotten when the cache is full.
+ */
+public final class BarCodeDeduplicator {
+
+	@Getter
+	private volatile int maxEntries;
+	/**
+	 * Time in milliseconds without detection after which the same content is
+	 * reported again.
+	 */
+	@Getter
+	private volatile long delay;
+	private final Map<String, Long> detectionTimes;
+	private final AtomicLong acceptedEvents = new AtomicLong();
+	private final AtomicLong suppressedEvents = new AtomicLong();
+
+	public BarCodeDeduplicator(int maxEntries, long delay) {
+		this.maxEntries = maxEntries;
+		this.delay = delay;
+		detectionTimes = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 4823051179368422706L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > BarCodeDeduplicator.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Records the detection of the given barcodes at the given time (in
+	 * milliseconds), and returns the ones which have to be reported, in the
+	 * same order: those whose content was not detected less than the delay
+	 * before.
+	 */
+	public List<BarCode> filter(List<BarCode> barCodes, long now) {
+		List<BarCode> res = new ArrayList<BarCode>(barCodes.size());
+		synchronized (detectionTimes) {
+			removeExpired(now);
+			for (BarCode barCode : barCodes) {
+				Long lastDetectionTime = detectionTimes.put(
+						barCode.getContent(), now);
+				if (lastDetectionTime == null
+						|| now - lastDetectionTime > delay) {
+					res.add(barCode);
+				}
+			}
+		}
+		acceptedEvents.addAndGet(res.size());
+		suppressedEvents.addAndGet(barCodes.size() - res.size());
+		return res;
+	}
+
+	/**
+	 * Removes the contents not detected for more than the delay. As the map
+	 * is in access order, they are all at its beginning.
+	 */
+	private void removeExpired(long now) {
+		Iterator<Long> iterator = detectionTimes.values().iterator();
+		while (iterator.hasNext() && now - iterator.next() > delay) {
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of contents remembered, 0 to report all the
+	 * detections.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException(
+					"The size of the cache cannot be negative.");
+		}
+		this.maxEntries = maxEntries;
+		synchronized (detectionTimes) {
+			// LinkedHashMap only removes entries when adding new ones
+			while (detectionTimes.size() > maxEntries) {
+				String eldest = detectionTimes.keySet().iterator().next();
+				detectionTimes.remove(eldest);
+			}
+		}
+	}
+
+	public void setDelay(long delay) {
+		if (delay < 0) {
+			throw new IllegalArgumentException(
+					"The delay cannot be negative.");
+		}
+		this.delay = delay;
+	}
+
+	public void clear() {
+		synchronized (detectionTimes) {
+			detectionTimes.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (detectionTimes) {
+			return detectionTimes.size();
+		}
+	}
+
+	/**
+	 * Returns the number of detected barcodes reported.
+	 */
+	public long getAcceptedEvents() {
+		return acceptedEvents.get();
+	}
+
+	/**
+	 * Returns the number of detected barcodes not reported because the same
+	 * content was detected recently.
+	 */
+	public long getSuppressedEvents() {
+		return suppressedEvents.get();
+	}
+
+}
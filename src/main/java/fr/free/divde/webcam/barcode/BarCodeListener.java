@@ -19,8 +19,13 @@
 package fr.free.divde.webcam.barcode;
 
 import java.util.EventListener;
+import java.util.List;
 
 public interface BarCodeListener extends EventListener {
 
-	public void barCodeDetected(String content);
+	/**
+	 * Called once per decoded frame in which at least one barcode was found,
+	 * with all the barcodes found in that frame.
+	 */
+	public void barCodesDetected(List<BarCode> barCodes);
 }
\ No newline at end of file
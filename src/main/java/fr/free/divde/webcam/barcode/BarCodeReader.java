@@ -18,57 +18,422 @@
 
 package fr.free.divde.webcam.barcode;
 
-import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.ChecksumException;
-import com.google.zxing.FormatException;
-import com.google.zxing.LuminanceSource;
-import com.google.zxing.NotFoundException;
-import com.google.zxing.Reader;
+import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
-import com.google.zxing.qrcode.QRCodeReader;
 
+import fr.free.divde.webcam.image.Frame;
 import fr.free.divde.webcam.image.ImageListener;
+import fr.free.divde.webcam.metrics.PipelineMetrics;
 
+/**
+ * Decodes barcodes in the frames it receives, on a configurable number of
+ * decoding threads. A frame is given to an idle thread, or discarded if all of
+ * them are busy. Results are reported to the {@link BarCodeListener} in the
+ * order of the frames, whichever thread finishes first.
+ *
+ * After a barcode is found, the next frames are first decoded in a region
+ * around it, which is much faster than decoding the whole frame as long as
+ * the barcode does not move too much. Otherwise, frames can first be decoded
+ * at a lower resolution (see {@link DecodePyramid}).
+ *
+ * Frames which do not differ from the previous ones are not decoded at all
+ * (see {@link SceneChangeDetector}).
+ *
+ * Most frames are decoded with the normal formats only (by default, QR
+ * codes). The full effort formats and ZXing's TRY_HARDER mode are only used
+ * every {@link #getFullEffortInterval()} frames, and on the frames following a
+ * motion, when the scene has just become still. This way, enabling expensive
+ * formats does not divide the decoding rate.
+ *
+ * If {@link #isMultipleBarCodes()} is true, all the barcodes of a frame are
+ * searched in the same decoding pass, and they are reported with a single call
+ * of the listener.
+ */
 public class BarCodeReader {
 
-	private Reader reader = new QRCodeReader();
 	@Getter
 	@Setter
-	private BarCodeListener barCodeListener;
+	private volatile BarCodeListener barCodeListener;
 	@Getter
 	private ImageListener imageListener = initImageListener();
+	@Getter
+	@Setter
+	private volatile PipelineMetrics metrics = new PipelineMetrics();
+
+	@Getter
+	private int decodeThreads = 1;
+	private List<DecodeWorker> workers;
+	private final BlockingQueue<DecodeWorker> idleWorkers = new LinkedBlockingQueue<DecodeWorker>();
+
+	// tickets give the order in which results are reported:
+	private long nextTicket;
+	private long nextReportedTicket;
+	private final Map<Long, Result[]> pendingResults = new HashMap<Long, Result[]>();
+
+	@Getter(AccessLevel.PACKAGE)
+	private final RegionTracker regionTracker = new RegionTracker();
+	@Getter(AccessLevel.PACKAGE)
+	private final DecodePyramid decodePyramid = new DecodePyramid();
+	private final SceneChangeDetector sceneChangeDetector = new SceneChangeDetector();
+	private volatile DecodeProfile profile = new DecodeProfile(
+			EnumSet.of(BarcodeFormat.QR_CODE),
+			EnumSet.noneOf(BarcodeFormat.class), null);
+	/**
+	 * A frame out of this number is decoded with full effort, 0 to only use
+	 * full effort when the scene becomes still.
+	 */
+	@Getter
+	@Setter
+	private volatile int fullEffortInterval = 10;
+	private long dispatchedFrames;
+	/**
+	 * If true, all the barcodes of each frame are searched and reported
+	 * together, otherwise the search stops at the first barcode.
+	 */
+	@Getter
+	@Setter
+	private volatile boolean multipleBarCodes;
+	private final AtomicLong fullEffortFrames = new AtomicLong();
+	private final AtomicLong decodedFrames = new AtomicLong();
 
 	private ImageListener initImageListener() {
 		return new ImageListener() {
 
 			@Override
-			public void nextFrame(BufferedImage image) {
-				processImage(image);
+			public void nextFrame(Frame frame) {
+				processImage(frame);
 			}
 		};
 	}
 
-	private void processImage(BufferedImage image) {
+	/**
+	 * Sets the number of threads decoding frames in parallel. Each of them
+	 * uses one processor core when frames arrive faster than they can be
+	 * decoded.
+	 */
+	public synchronized void setDecodeThreads(int decodeThreads) {
+		if (decodeThreads < 1) {
+			throw new IllegalArgumentException(
+					"There must be at least one decoding thread.");
+		}
+		this.decodeThreads = decodeThreads;
+		shutdown();
+	}
+
+	/**
+	 * Stops the decoding threads. They are started again when the next frame
+	 * arrives.
+	 */
+	public synchronized void shutdown() {
+		if (workers != null) {
+			for (DecodeWorker worker : workers) {
+				worker.stop();
+			}
+			workers = null;
+			idleWorkers.clear();
+		}
+	}
+
+	private synchronized void processImage(Frame frame) {
 		if (barCodeListener == null) {
 			return;
 		}
-		LuminanceSource source = new BufferedImageLuminanceSource(image);
-		BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-		try {
-			Result result = reader.decode(bitmap);
-			String stringResult = result.getText();
-			barCodeListener.barCodeDetected(stringResult);
-			reader.reset();
-		} catch (NotFoundException e) {
-		} catch (ChecksumException e) {
-		} catch (FormatException e) {
+		if (workers == null) {
+			workers = new ArrayList<DecodeWorker>(decodeThreads);
+			for (int i = 0; i < decodeThreads; i++) {
+				DecodeWorker worker = new DecodeWorker(this, i);
+				workers.add(worker);
+				idleWorkers.add(worker);
+			}
+		}
+		// frames which cannot be decoded now must not reach the detector:
+		// they would use up the frames decoded once the scene settles
+		if (idleWorkers.isEmpty()) {
+			metrics.frameStale();
+			return;
+		}
+		if (!sceneChangeDetector.accept(frame)) {
+			return;
+		}
+		DecodeWorker worker = idleWorkers.poll();
+		boolean fullEffort = scheduleFullEffort();
+		if (fullEffort) {
+			fullEffortFrames.incrementAndGet();
+		}
+		worker.submit(frame.retain(), nextTicket, profile, fullEffort,
+				multipleBarCodes);
+		nextTicket++;
+	}
+
+	private boolean scheduleFullEffort() {
+		dispatchedFrames++;
+		int interval = fullEffortInterval;
+		if (interval > 0 && dispatchedFrames % interval == 0) {
+			return true;
+		}
+		return sceneChangeDetector.isStill();
+	}
+
+	/**
+	 * Parses a list of barcode formats separated by commas, such as
+	 * "QR_CODE,EAN_13,CODE_128".
+	 */
+	public static List<BarcodeFormat> parseFormats(String formats) {
+		List<BarcodeFormat> res = new ArrayList<BarcodeFormat>();
+		for (String format : formats.split(",")) {
+			format = format.trim();
+			if (format.length() > 0) {
+				res.add(BarcodeFormat.valueOf(format.toUpperCase()));
+			}
+		}
+		return res;
+	}
+
+	public Set<BarcodeFormat> getFormats() {
+		return profile.getFormats();
+	}
+
+	/**
+	 * Sets the formats searched in every decoded frame.
+	 */
+	public synchronized void setFormats(Collection<BarcodeFormat> formats) {
+		profile = new DecodeProfile(formats, profile.getFullEffortFormats(),
+				profile.getCharacterSet());
+	}
+
+	public Set<BarcodeFormat> getFullEffortFormats() {
+		return profile.getFullEffortFormats();
+	}
+
+	/**
+	 * Sets the additional formats which are only searched in the frames
+	 * decoded with full effort.
+	 */
+	public synchronized void setFullEffortFormats(
+			Collection<BarcodeFormat> fullEffortFormats) {
+		profile = new DecodeProfile(profile.getFormats(), fullEffortFormats,
+				profile.getCharacterSet());
+	}
+
+	public String getCharacterSet() {
+		return profile.getCharacterSet();
+	}
+
+	/**
+	 * Sets the character set used to decode the content of barcodes, null to
+	 * let ZXing guess it.
+	 */
+	public synchronized void setCharacterSet(String characterSet) {
+		profile = new DecodeProfile(profile.getFormats(),
+				profile.getFullEffortFormats(), characterSet);
+	}
+
+	/**
+	 * Replaces a worker whose thread is ending because of an error.
+	 */
+	synchronized void replaceWorker(DecodeWorker worker) {
+		if (workers != null && workers.remove(worker)) {
+			idleWorkers.remove(worker);
+			DecodeWorker replacement = new DecodeWorker(this,
+					worker.getIndex());
+			workers.add(replacement);
+			idleWorkers.add(replacement);
+		}
+	}
+
+	void frameDecoded(DecodeWorker worker, long ticket, Result[] results) {
+		synchronized (this) {
+			if (workers != null && workers.contains(worker)) {
+				idleWorkers.add(worker);
+			}
+		}
+		// counted once the worker is idle again, so that a frame given as
+		// soon as the count changes is not stale
+		decodedFrames.incrementAndGet();
+		if (results.length > 0) {
+			metrics.decodeSucceeded();
+		} else {
+			metrics.decodeFailed();
 		}
+		synchronized (pendingResults) {
+			pendingResults.put(ticket, results);
+			while (pendingResults.containsKey(nextReportedTicket)) {
+				Result[] nextResults = pendingResults.remove(nextReportedTicket);
+				nextReportedTicket++;
+				BarCodeListener listener = barCodeListener;
+				if (nextResults.length > 0 && listener != null) {
+					listener.barCodesDetected(toBarCodes(nextResults));
+				}
+			}
+		}
+	}
+
+	private static List<BarCode> toBarCodes(Result[] results) {
+		List<BarCode> res = new ArrayList<BarCode>(results.length);
+		for (Result result : results) {
+			res.add(new BarCode(result));
+		}
+		return res;
+	}
+
+	public boolean isRegionTracking() {
+		return regionTracker.isEnabled();
+	}
+
+	/**
+	 * Enables or disables decoding first the region where the last barcode
+	 * was found.
+	 */
+	public void setRegionTracking(boolean regionTracking) {
+		regionTracker.setEnabled(regionTracking);
+		regionTracker.lost();
+	}
+
+	public float getRegionPadding() {
+		return regionTracker.getPadding();
+	}
+
+	/**
+	 * Sets the margin added around the last barcode to define the region to
+	 * decode first, relative to the size of the barcode.
+	 */
+	public void setRegionPadding(float regionPadding) {
+		regionTracker.setPadding(regionPadding);
+	}
+
+	/**
+	 * Returns the number of frames in which a barcode was found in the
+	 * tracked region, without decoding the whole frame.
+	 */
+	public long getRegionHits() {
+		return regionTracker.getHits();
+	}
+
+	/**
+	 * Returns the number of frames in which nothing was found in the tracked
+	 * region, so that the whole frame was decoded.
+	 */
+	public long getRegionMisses() {
+		return regionTracker.getMisses();
+	}
+
+	public int getCoarseScale() {
+		return decodePyramid.getScale();
+	}
+
+	/**
+	 * Sets the downsampling factor (for example 2 or 4) of the coarse pass,
+	 * which is tried before decoding the frame at full resolution, or 1 to
+	 * always decode at full resolution.
+	 */
+	public void setCoarseScale(int coarseScale) {
+		decodePyramid.setScale(coarseScale);
+	}
+
+	/**
+	 * Returns the number of frames in which a barcode was found by the coarse
+	 * pass.
+	 */
+	public long getCoarseHits() {
+		return decodePyramid.getCoarseHits();
+	}
+
+	/**
+	 * Returns the number of frames decoded at full resolution because the
+	 * coarse pass found nothing.
+	 */
+	public long getCoarseEscalations() {
+		return decodePyramid.getEscalations();
+	}
+
+	/**
+	 * Returns the fraction of coarse passes which had to be followed by a
+	 * full resolution pass.
+	 */
+	public double getCoarseEscalationRatio() {
+		return decodePyramid.getEscalationRatio();
+	}
+
+	public boolean isSceneChangeDetection() {
+		return sceneChangeDetector.isEnabled();
+	}
+
+	/**
+	 * Enables or disables skipping frames which do not differ from the
+	 * previous ones.
+	 */
+	public void setSceneChangeDetection(boolean sceneChangeDetection) {
+		sceneChangeDetector.setEnabled(sceneChangeDetection);
+	}
+
+	public float getSceneChangeThreshold() {
+		return sceneChangeDetector.getChangeThreshold();
+	}
+
+	/**
+	 * Sets the luminance difference (from 0 to 255) of a cell of the coarse
+	 * grid between two consecutive frames above which the scene is
+	 * considered changed.
+	 */
+	public void setSceneChangeThreshold(float sceneChangeThreshold) {
+		sceneChangeDetector.setChangeThreshold(sceneChangeThreshold);
+	}
+
+	public int getSceneSettleFrames() {
+		return sceneChangeDetector.getSettleFrames();
+	}
+
+	/**
+	 * Sets the number of frames which are still decoded after the last scene
+	 * change.
+	 */
+	public void setSceneSettleFrames(int sceneSettleFrames) {
+		sceneChangeDetector.setSettleFrames(sceneSettleFrames);
+	}
+
+	/**
+	 * Returns the number of frames which were not decoded because the scene
+	 * did not change.
+	 */
+	public long getUnchangedFrames() {
+		return sceneChangeDetector.getSkippedFrames();
+	}
+
+	/**
+	 * Returns the number of frames decoded with full effort.
+	 */
+	public long getFullEffortFrames() {
+		return fullEffortFrames.get();
+	}
+
+	/**
+	 * Returns the number of frames in which barcodes were searched.
+	 */
+	public long getDecodedFrames() {
+		return decodedFrames.get();
+	}
+
+	/**
+	 * Returns the number of frames discarded because all the decoding threads
+	 * were busy, as counted by the metrics.
+	 */
+	public long getStaleFrames() {
+		return metrics.getStaleFrames();
 	}
 
 }
\ No newline at end of file
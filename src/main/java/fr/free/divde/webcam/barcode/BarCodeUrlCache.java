@@ -0,0 +1,140 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import fr.free.divde.webcam.image.DataImageUrl;
+
+/**
+ * Creates data URLs of QR code images, and keeps the last ones in a bounded
+ * cache, so that the same code displayed again is neither encoded nor
+ * compressed again. The least recently used URL is removed when the cache is
+ * full.
+ */
+public final class BarCodeUrlCache {
+
+	@Getter
+	private volatile int maxEntries;
+	private final Map<String, String> urls;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public BarCodeUrlCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		urls = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = -2618358914395185476L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > BarCodeUrlCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the data URL of an image of the QR code with the given content.
+	 * If binary is true, the image has one bit per pixel, which is only
+	 * possible with lossless formats such as png or gif.
+	 */
+	public String getUrl(String content, int width, int height,
+			String format, String mimeType, boolean binary)
+			throws WriterException, IOException {
+		String key = content.length() + ":" + content + ":" + width + "x"
+				+ height + ":" + format + ":" + mimeType + ":" + binary;
+		synchronized (urls) {
+			String res = urls.get(key);
+			if (res != null) {
+				hits.incrementAndGet();
+				return res;
+			}
+		}
+		misses.incrementAndGet();
+		QRCodeWriter writer = new QRCodeWriter();
+		BitMatrix matrix = writer.encode(content, BarcodeFormat.QR_CODE,
+				width, height);
+		BufferedImage image = MatrixToImageWriter.toBufferedImage(matrix,
+				binary ? BufferedImage.TYPE_BYTE_BINARY
+						: BufferedImage.TYPE_INT_RGB);
+		String res = DataImageUrl.imageToDataURL(image, format, mimeType);
+		synchronized (urls) {
+			urls.put(key, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Sets the maximum number of URLs kept in the cache, 0 to disable it.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException(
+					"The size of the cache cannot be negative.");
+		}
+		this.maxEntries = maxEntries;
+		synchronized (urls) {
+			// LinkedHashMap only removes entries when adding new ones
+			while (urls.size() > maxEntries) {
+				String eldest = urls.keySet().iterator().next();
+				urls.remove(eldest);
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (urls) {
+			urls.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (urls) {
+			return urls.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the fraction of the requests which were found in the cache.
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+}
@@ -20,21 +20,47 @@ import com.google.zxing.LuminanceSource;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.awt.geom.AffineTransform;
 
 /**
  * This LuminanceSource implementation is meant for J2SE clients and our
  * blackbox unit tests.
  * 
+ * For {@link BufferedImage#TYPE_INT_RGB}, {@link BufferedImage#TYPE_INT_ARGB},
+ * {@link BufferedImage#TYPE_3BYTE_BGR} and {@link BufferedImage#TYPE_BYTE_GRAY}
+ * images, luminance is computed directly from the array backing the raster.
+ * Other image types go through {@link BufferedImage#getRGB}, which converts
+ * each pixel with the color model of the image.
+ * 
  * @author dswitkin@google.com (Daniel Switkin)
  * @author Sean Owen
  */
 public final class BufferedImageLuminanceSource extends LuminanceSource {
 
+	private static final int RASTER_NONE = 0;
+	private static final int RASTER_INT_RGB = 1;
+	private static final int RASTER_BYTE_BGR = 2;
+	private static final int RASTER_BYTE_GRAY = 3;
+
 	private final BufferedImage image;
 	private final int left;
 	private final int top;
 	private int[] rgbData;
+	private byte[] matrix;
+
+	// raster-direct access:
+	private final int rasterType;
+	private int[] intData;
+	private byte[] byteData;
+	// index in the data array of the top-left pixel of the image:
+	private int dataOffset;
+	private int scanlineStride;
 
 	public BufferedImageLuminanceSource(BufferedImage image) {
 		this(image, 0, 0, image.getWidth(), image.getHeight());
@@ -54,10 +80,118 @@ public final class BufferedImageLuminanceSource extends LuminanceSource {
 		this.image = image;
 		this.left = left;
 		this.top = top;
+		this.rasterType = initRasterAccess();
+	}
+
+	private int initRasterAccess() {
+		WritableRaster raster = image.getRaster();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		if (dataBuffer.getNumBanks() != 1) {
+			return RASTER_NONE;
+		}
+		int translateX = raster.getSampleModelTranslateX();
+		int translateY = raster.getSampleModelTranslateY();
+		switch (image.getType()) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB:
+			if (dataBuffer instanceof DataBufferInt
+					&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+				scanlineStride = ((SinglePixelPackedSampleModel) raster
+						.getSampleModel()).getScanlineStride();
+				intData = ((DataBufferInt) dataBuffer).getData();
+				dataOffset = dataBuffer.getOffset() - translateY
+						* scanlineStride - translateX;
+				return RASTER_INT_RGB;
+			}
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_BYTE_GRAY:
+			if (dataBuffer instanceof DataBufferByte
+					&& raster.getSampleModel() instanceof ComponentSampleModel) {
+				ComponentSampleModel sampleModel = (ComponentSampleModel) raster
+						.getSampleModel();
+				int pixelStride = sampleModel.getPixelStride();
+				int[] bandOffsets = sampleModel.getBandOffsets();
+				scanlineStride = sampleModel.getScanlineStride();
+				byteData = ((DataBufferByte) dataBuffer).getData();
+				dataOffset = dataBuffer.getOffset() - translateY
+						* scanlineStride - translateX * pixelStride;
+				if (image.getType() == BufferedImage.TYPE_BYTE_GRAY
+						&& pixelStride == 1) {
+					dataOffset += bandOffsets[0];
+					return RASTER_BYTE_GRAY;
+				}
+				if (image.getType() == BufferedImage.TYPE_3BYTE_BGR
+						&& pixelStride == 3 && bandOffsets[0] == 2
+						&& bandOffsets[1] == 1 && bandOffsets[2] == 0) {
+					return RASTER_BYTE_BGR;
+				}
+			}
+			break;
+		}
+		intData = null;
+		byteData = null;
+		return RASTER_NONE;
+	}
+
+	/**
+	 * Returns true if luminance is read directly from the raster of the image,
+	 * false if it goes through {@link BufferedImage#getRGB}.
+	 */
+	public boolean isRasterDirect() {
+		return rasterType != RASTER_NONE;
 	}
 
 	// These methods use an integer calculation for luminance derived from:
 	// <code>Y = 0.299R + 0.587G + 0.114B</code>
+	// 0x200 = 1<<9, half an lsb of the result to force rounding
+	private static int luminance(int r, int g, int b) {
+		return (306 * r + 601 * g + 117 * b + 0x200) >> 10;
+	}
+
+	/**
+	 * Computes the luminance of the given number of pixels, starting at (x,y)
+	 * in the image, and stores it in dest from destOffset.
+	 */
+	private void readRow(int x, int y, int width, byte[] dest, int destOffset) {
+		switch (rasterType) {
+		case RASTER_INT_RGB: {
+			int offset = dataOffset + y * scanlineStride + x;
+			for (int i = 0; i < width; i++) {
+				int pixel = intData[offset + i];
+				dest[destOffset + i] = (byte) luminance((pixel >> 16) & 0xFF,
+						(pixel >> 8) & 0xFF, pixel & 0xFF);
+			}
+			break;
+		}
+		case RASTER_BYTE_BGR: {
+			int offset = dataOffset + y * scanlineStride + 3 * x;
+			for (int i = 0; i < width; i++) {
+				dest[destOffset + i] = (byte) luminance(
+						byteData[offset + 2] & 0xFF,
+						byteData[offset + 1] & 0xFF, byteData[offset] & 0xFF);
+				offset += 3;
+			}
+			break;
+		}
+		case RASTER_BYTE_GRAY:
+			System.arraycopy(byteData, dataOffset + y * scanlineStride + x,
+					dest, destOffset, width);
+			break;
+		default:
+			if (rgbData == null || rgbData.length < width) {
+				rgbData = new int[width];
+			}
+			image.getRGB(x, y, width, 1, rgbData, 0, width);
+			for (int i = 0; i < width; i++) {
+				int pixel = rgbData[i];
+				dest[destOffset + i] = (byte) luminance((pixel >> 16) & 0xFF,
+						(pixel >> 8) & 0xFF, pixel & 0xFF);
+			}
+			break;
+		}
+	}
+
 	@Override
 	public byte[] getRow(int y, byte[] row) {
 		if (y < 0 || y >= getHeight()) {
@@ -68,59 +202,25 @@ public final class BufferedImageLuminanceSource extends LuminanceSource {
 		if (row == null || row.length < width) {
 			row = new byte[width];
 		}
-
-		if (rgbData == null || rgbData.length < width) {
-			rgbData = new int[width];
-		}
-		image.getRGB(left, top + y, width, 1, rgbData, 0, width);
-		for (int x = 0; x < width; x++) {
-			int pixel = rgbData[x];
-			int luminance = (306 * ((pixel >> 16) & 0xFF) + 601
-					* ((pixel >> 8) & 0xFF) + 117 * (pixel & 0xFF) + (0x200)) >> 10; // 0x200
-																						// =
-																						// 1<<9,
-																						// half
-																						// an
-																						// lsb
-																						// of
-																						// the
-																						// result
-																						// to
-																						// force
-																						// rounding
-			row[x] = (byte) luminance;
-		}
+		readRow(left, top + y, width, row, 0);
 		return row;
 	}
 
+	/**
+	 * Returns the luminance of the whole (cropped) image. The matrix is
+	 * computed on the first call and reused by the following ones, so it must
+	 * not be modified.
+	 */
 	@Override
 	public byte[] getMatrix() {
-		int width = getWidth();
-		int height = getHeight();
-		int area = width * height;
-		byte[] matrix = new byte[area];
-
-		int[] rgb = new int[area];
-		image.getRGB(left, top, width, height, rgb, 0, width);
-		for (int y = 0; y < height; y++) {
-			int offset = y * width;
-			for (int x = 0; x < width; x++) {
-				int pixel = rgb[offset + x];
-				int luminance = (306 * ((pixel >> 16) & 0xFF) + 601
-						* ((pixel >> 8) & 0xFF) + 117 * (pixel & 0xFF) + (0x200)) >> 10; // 0x200
-																							// =
-																							// 1<<9,
-																							// half
-																							// an
-																							// lsb
-																							// of
-																							// the
-																							// result
-																							// to
-																							// force
-																							// rounding
-				matrix[offset + x] = (byte) luminance;
+		if (matrix == null) {
+			int width = getWidth();
+			int height = getHeight();
+			byte[] res = new byte[width * height];
+			for (int y = 0; y < height; y++) {
+				readRow(left, top + y, width, res, y * width);
 			}
+			matrix = res;
 		}
 		return matrix;
 	}
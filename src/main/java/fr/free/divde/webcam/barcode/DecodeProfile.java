@@ -0,0 +1,142 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+
+/**
+ * Immutable set of decoding hints: the normal ones, used on most frames, and
+ * the full effort ones, which add the expensive formats and
+ * {@link DecodeHintType#TRY_HARDER}.
+ *
+ * When all the barcodes of a frame are searched, QR codes are decoded by a
+ * dedicated reader, so the profile also contains hints without the QR code
+ * format for the other readers.
+ */
+final class DecodeProfile {
+
+	private final Set<BarcodeFormat> formats;
+	private final Set<BarcodeFormat> fullEffortFormats;
+	private final String characterSet;
+	private final Map<DecodeHintType, Object> normalHints;
+	private final Map<DecodeHintType, Object> fullEffortHints;
+	private final Map<DecodeHintType, Object> normalHintsWithoutQRCode;
+	private final Map<DecodeHintType, Object> fullEffortHintsWithoutQRCode;
+
+	public DecodeProfile(Collection<BarcodeFormat> formats,
+			Collection<BarcodeFormat> fullEffortFormats, String characterSet) {
+		if (formats.isEmpty()) {
+			throw new IllegalArgumentException(
+					"At least one barcode format is needed.");
+		}
+		this.formats = Collections.unmodifiableSet(EnumSet.copyOf(formats));
+		this.fullEffortFormats = Collections
+				.unmodifiableSet(fullEffortFormats.isEmpty() ? EnumSet
+						.noneOf(BarcodeFormat.class) : EnumSet
+						.copyOf(fullEffortFormats));
+		this.characterSet = characterSet;
+
+		Set<BarcodeFormat> allFormats = EnumSet.copyOf(this.formats);
+		allFormats.addAll(this.fullEffortFormats);
+		normalHints = createHints(this.formats, false);
+		fullEffortHints = createHints(allFormats, true);
+		normalHintsWithoutQRCode = createHints(
+				withoutQRCode(this.formats), false);
+		fullEffortHintsWithoutQRCode = createHints(withoutQRCode(allFormats),
+				true);
+	}
+
+	private static Set<BarcodeFormat> withoutQRCode(Set<BarcodeFormat> formats) {
+		Set<BarcodeFormat> res = EnumSet.copyOf(formats);
+		res.remove(BarcodeFormat.QR_CODE);
+		return res;
+	}
+
+	/**
+	 * Returns the hints to search the given formats, or null if there is no
+	 * format.
+	 */
+	private Map<DecodeHintType, Object> createHints(
+			Set<BarcodeFormat> possibleFormats, boolean tryHarder) {
+		if (possibleFormats.isEmpty()) {
+			return null;
+		}
+		Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(
+				DecodeHintType.class);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS,
+				Collections.unmodifiableSet(possibleFormats));
+		if (characterSet != null) {
+			hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+		}
+		if (tryHarder) {
+			hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+		}
+		return Collections.unmodifiableMap(hints);
+	}
+
+	public Set<BarcodeFormat> getFormats() {
+		return formats;
+	}
+
+	public Set<BarcodeFormat> getFullEffortFormats() {
+		return fullEffortFormats;
+	}
+
+	public String getCharacterSet() {
+		return characterSet;
+	}
+
+	public Map<DecodeHintType, Object> getNormalHints() {
+		return normalHints;
+	}
+
+	public Map<DecodeHintType, Object> getFullEffortHints() {
+		return fullEffortHints;
+	}
+
+	/**
+	 * Returns the normal hints without the QR code format, or null if QR code
+	 * is the only normal format.
+	 */
+	public Map<DecodeHintType, Object> getNormalHintsWithoutQRCode() {
+		return normalHintsWithoutQRCode;
+	}
+
+	/**
+	 * Returns the full effort hints without the QR code format, or null if QR
+	 * code is the only format.
+	 */
+	public Map<DecodeHintType, Object> getFullEffortHintsWithoutQRCode() {
+		return fullEffortHintsWithoutQRCode;
+	}
+
+	public boolean containsQRCode(boolean fullEffort) {
+		return formats.contains(BarcodeFormat.QR_CODE) || fullEffort
+				&& fullEffortFormats.contains(BarcodeFormat.QR_CODE);
+	}
+
+}
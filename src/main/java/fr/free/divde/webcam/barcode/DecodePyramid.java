@@ -0,0 +1,147 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * Settings and statistics of the coarse decoding pass, shared by all the
+ * decoding threads of a {@link BarCodeReader}.
+ *
+ * When the scale is more than 1, frames are first decoded from a luminance
+ * plane downsampled by that factor, which is much cheaper to binarize. Large
+ * barcodes, close to the camera, are found by this pass, and the full
+ * resolution frame is only decoded when it fails (escalation).
+ */
+final class DecodePyramid {
+
+	/**
+	 * Largest downsampling factor of the coarse pass.
+	 */
+	public static final int MAX_SCALE = 16;
+	/**
+	 * Number of levels of the pyramid for the largest downsampling factor.
+	 */
+	public static final int MAX_LEVELS = Integer
+			.numberOfTrailingZeros(MAX_SCALE);
+
+	/**
+	 * Downsampling factor of the coarse pass, 1 to disable it.
+	 */
+	@Getter
+	private volatile int scale = 1;
+
+	private final AtomicLong coarseHits = new AtomicLong();
+	private final AtomicLong escalations = new AtomicLong();
+
+	public void setScale(int scale) {
+		if (scale < 1 || scale > MAX_SCALE || Integer.bitCount(scale) != 1) {
+			throw new IllegalArgumentException(
+					"The scale of the coarse pass must be a power of 2 between 1 and "
+							+ MAX_SCALE + ".");
+		}
+		this.scale = scale;
+	}
+
+	/**
+	 * Downsamples the given luminance plane by the given power of 2, halving
+	 * it as many times as needed. Each level is stored in the corresponding
+	 * element of the levels array, which must have {@link #MAX_LEVELS}
+	 * elements. The buffers already in that array are reused if they have the
+	 * right size. Returns the last level, of size (width / scale) x (height /
+	 * scale).
+	 */
+	public static byte[] downsample(byte[] luminance, int width, int height,
+			int scale, byte[][] levels) {
+		byte[] plane = luminance;
+		for (int level = 0; (1 << level) < scale; level++) {
+			int halfWidth = width / 2;
+			int halfHeight = height / 2;
+			byte[] buffer = levels[level];
+			if (buffer == null || buffer.length != halfWidth * halfHeight) {
+				buffer = new byte[halfWidth * halfHeight];
+				levels[level] = buffer;
+			}
+			halve(plane, width, halfWidth, halfHeight, buffer);
+			plane = buffer;
+			width = halfWidth;
+			height = halfHeight;
+		}
+		return plane;
+	}
+
+	/**
+	 * Stores in result the average of each block of 2x2 pixels of the given
+	 * plane. With a fixed block size, the four pixels are read without any
+	 * inner loop, which is about twice as fast as a generic box filter.
+	 */
+	private static void halve(byte[] plane, int width, int halfWidth,
+			int halfHeight, byte[] result) {
+		int outputOffset = 0;
+		for (int y = 0; y < halfHeight; y++) {
+			int offset0 = 2 * y * width;
+			int offset1 = offset0 + width;
+			for (int x = 0; x < halfWidth; x++) {
+				int i = 2 * x;
+				int sum = (plane[offset0 + i] & 0xFF)
+						+ (plane[offset0 + i + 1] & 0xFF)
+						+ (plane[offset1 + i] & 0xFF)
+						+ (plane[offset1 + i + 1] & 0xFF);
+				result[outputOffset++] = (byte) ((sum + 2) >> 2);
+			}
+		}
+	}
+
+	void coarseHit() {
+		coarseHits.incrementAndGet();
+	}
+
+	void escalated() {
+		escalations.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of frames in which a barcode was found by the coarse
+	 * pass.
+	 */
+	public long getCoarseHits() {
+		return coarseHits.get();
+	}
+
+	/**
+	 * Returns the number of frames which had to be decoded at full resolution
+	 * because the coarse pass found nothing.
+	 */
+	public long getEscalations() {
+		return escalations.get();
+	}
+
+	/**
+	 * Returns the fraction of coarse passes which had to be followed by a full
+	 * resolution pass, or 0 if there was no coarse pass.
+	 */
+	public double getEscalationRatio() {
+		long escalationCount = escalations.get();
+		long total = coarseHits.get() + escalationCount;
+		return total == 0 ? 0 : (double) escalationCount / total;
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import com.google.zxing.Result;
+
+import fr.free.divde.webcam.image.Frame;
+
+/**
+ * Thread decoding one frame at a time with its own {@link FrameDecoder}, and
+ * reporting the result to its {@link BarCodeReader}.
+ */
+final class DecodeWorker implements Runnable {
+
+	private static final Result[] NO_RESULT = new Result[0];
+
+	private final BarCodeReader owner;
+	private final int index;
+	private final FrameDecoder decoder;
+	private final Thread thread;
+
+	// the following fields are guarded by this
+	private Frame frame;
+	private long ticket;
+	private DecodeProfile profile;
+	private boolean fullEffort;
+	private boolean multiple;
+	private boolean stopRequested;
+
+	public DecodeWorker(BarCodeReader owner, int index) {
+		this.owner = owner;
+		this.index = index;
+		decoder = new FrameDecoder(owner.getRegionTracker(),
+				owner.getDecodePyramid());
+		thread = new Thread(this);
+		thread.setName("Barcode decoder " + index);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Gives a frame to decode to this worker, which must be idle. The worker
+	 * releases the frame once decoded. If multiple is true, all the barcodes
+	 * of the frame are searched instead of the first one only.
+	 */
+	public synchronized void submit(Frame frame, long ticket,
+			DecodeProfile profile, boolean fullEffort, boolean multiple) {
+		this.frame = frame;
+		this.ticket = ticket;
+		this.profile = profile;
+		this.fullEffort = fullEffort;
+		this.multiple = multiple;
+		notifyAll();
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Lets the thread end once the current frame, if any, is decoded.
+	 */
+	public synchronized void stop() {
+		stopRequested = true;
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Frame currentFrame;
+				long currentTicket;
+				DecodeProfile currentProfile;
+				boolean currentFullEffort;
+				boolean currentMultiple;
+				synchronized (this) {
+					while (frame == null && !stopRequested) {
+						wait();
+					}
+					if (frame == null) {
+						return;
+					}
+					currentFrame = frame;
+					currentTicket = ticket;
+					currentProfile = profile;
+					currentFullEffort = fullEffort;
+					currentMultiple = multiple;
+					frame = null;
+				}
+				Result[] results = NO_RESULT;
+				boolean completed = false;
+				long start = System.nanoTime();
+				try {
+					if (currentMultiple) {
+						results = decoder.decodeMultiple(currentFrame,
+								currentProfile, currentFullEffort);
+					} else {
+						Result result = decoder.decode(currentFrame,
+								currentProfile, currentFullEffort);
+						if (result != null) {
+							results = new Result[] { result };
+						}
+					}
+					completed = true;
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					completed = true;
+				} finally {
+					currentFrame.release();
+					owner.getMetrics().getDecode().recordSince(start);
+					if (!completed) {
+						// an Error (such as OutOfMemoryError) ends this
+						// thread: it is replaced before reporting the ticket,
+						// so that no frame is given to it anymore
+						owner.replaceWorker(this);
+					}
+					// the ticket is always reported, otherwise the results
+					// of all the next frames would wait for it forever
+					owner.frameDecoded(this, currentTicket, results);
+				}
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+}
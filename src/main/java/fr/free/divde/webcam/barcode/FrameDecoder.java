@@ -0,0 +1,246 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
+
+import fr.free.divde.webcam.image.Frame;
+
+/**
+ * Decodes barcodes in frames. ZXing readers are not thread-safe, so each
+ * decoding thread has its own instance of this class.
+ */
+final class FrameDecoder {
+
+	private final MultiFormatReader normalReader = new MultiFormatReader();
+	private final MultiFormatReader fullEffortReader = new MultiFormatReader();
+	private final QRCodeMultiReader qrCodeMultiReader = new QRCodeMultiReader();
+	private final MultiFormatReader normalReaderWithoutQRCode = new MultiFormatReader();
+	private final MultiFormatReader fullEffortReaderWithoutQRCode = new MultiFormatReader();
+	private final RegionTracker regionTracker;
+	private final DecodePyramid pyramid;
+	private DecodeProfile profile;
+	private final byte[][] pyramidLevels = new byte[DecodePyramid.MAX_LEVELS][];
+
+	public FrameDecoder(RegionTracker regionTracker, DecodePyramid pyramid) {
+		this.regionTracker = regionTracker;
+		this.pyramid = pyramid;
+	}
+
+	private void setProfile(DecodeProfile newProfile) {
+		if (newProfile != profile) {
+			normalReader.setHints(newProfile.getNormalHints());
+			fullEffortReader.setHints(newProfile.getFullEffortHints());
+			if (newProfile.getNormalHintsWithoutQRCode() != null) {
+				normalReaderWithoutQRCode.setHints(newProfile
+						.getNormalHintsWithoutQRCode());
+			}
+			if (newProfile.getFullEffortHintsWithoutQRCode() != null) {
+				fullEffortReaderWithoutQRCode.setHints(newProfile
+						.getFullEffortHintsWithoutQRCode());
+			}
+			profile = newProfile;
+		}
+	}
+
+	/**
+	 * Returns the barcode found in the given frame, or null if there is none.
+	 * The region where the previous barcode was found is tried first, then
+	 * the whole frame downsampled by the scale of the {@link DecodePyramid},
+	 * and the whole frame at full resolution is only decoded if nothing is
+	 * found in both.
+	 * 
+	 * With full effort, the expensive formats of the profile are also
+	 * searched, and ZXing tries harder.
+	 */
+	public Result decode(Frame frame, DecodeProfile profile, boolean fullEffort) {
+		setProfile(profile);
+		MultiFormatReader reader = fullEffort ? fullEffortReader
+				: normalReader;
+		LuminanceSource source = new PlanarLuminanceSource(
+				frame.getLuminance(), frame.getWidth(), frame.getHeight());
+		Rectangle region = regionTracker.getRegion(frame.getWidth(),
+				frame.getHeight());
+		if (region != null) {
+			Result result = decode(reader, source.crop(region.x, region.y,
+					region.width, region.height));
+			if (result != null) {
+				regionTracker.regionHit();
+				result = transform(result, 1, region.x, region.y);
+				regionTracker.found(result.getResultPoints());
+				return result;
+			}
+			regionTracker.regionMissed();
+		}
+		int scale = pyramid.getScale();
+		int coarseWidth = frame.getWidth() / scale;
+		int coarseHeight = frame.getHeight() / scale;
+		if (scale > 1 && coarseWidth > 0 && coarseHeight > 0) {
+			byte[] coarseLuminance = DecodePyramid.downsample(
+					frame.getLuminance(), frame.getWidth(), frame.getHeight(),
+					scale, pyramidLevels);
+			Result result = decode(reader, new PlanarLuminanceSource(
+					coarseLuminance, coarseWidth, coarseHeight));
+			if (result != null) {
+				pyramid.coarseHit();
+				result = transform(result, scale, 0, 0);
+				regionTracker.found(result.getResultPoints());
+				return result;
+			}
+			pyramid.escalated();
+		}
+		Result result = decode(reader, source);
+		if (result != null) {
+			regionTracker.found(result.getResultPoints());
+		} else {
+			regionTracker.lost();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all the barcodes found in the given frame, or an empty array if
+	 * there is none. QR codes are all located in a single pass of
+	 * {@link QRCodeMultiReader}, and the other formats are searched with
+	 * {@link GenericMultipleBarcodeReader}. Both share the same binarized
+	 * frame. The tracked region is not used, as the barcodes can be anywhere
+	 * in the frame.
+	 */
+	public Result[] decodeMultiple(Frame frame, DecodeProfile profile,
+			boolean fullEffort) {
+		setProfile(profile);
+		BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(
+				new PlanarLuminanceSource(frame.getLuminance(), frame
+						.getWidth(), frame.getHeight())));
+		List<Result> results = new ArrayList<Result>();
+		if (profile.containsQRCode(fullEffort)) {
+			Map<DecodeHintType, Object> hints = fullEffort ? profile
+					.getFullEffortHints() : profile.getNormalHints();
+			try {
+				Collections.addAll(results,
+						qrCodeMultiReader.decodeMultiple(bitmap, hints));
+			} catch (NotFoundException e) {
+			}
+		}
+		Map<DecodeHintType, Object> otherHints = fullEffort ? profile
+				.getFullEffortHintsWithoutQRCode() : profile
+				.getNormalHintsWithoutQRCode();
+		if (otherHints != null) {
+			MultiFormatReader reader = fullEffort ? fullEffortReaderWithoutQRCode
+					: normalReaderWithoutQRCode;
+			try {
+				Collections.addAll(results, new GenericMultipleBarcodeReader(
+						new PreparedReader(reader)).decodeMultiple(bitmap));
+			} catch (NotFoundException e) {
+			} finally {
+				reader.reset();
+			}
+		}
+		return results.toArray(new Result[results.size()]);
+	}
+
+	private static Result decode(MultiFormatReader reader,
+			LuminanceSource source) {
+		BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+		try {
+			return reader.decodeWithState(bitmap);
+		} catch (NotFoundException e) {
+			return null;
+		} finally {
+			reader.reset();
+		}
+	}
+
+	/**
+	 * Returns a copy of the given result with its points multiplied by scale
+	 * and moved by (left, top), to convert them from the coordinates of a
+	 * cropped or downsampled plane to the coordinates of the frame.
+	 */
+	private static Result transform(Result result, int scale, int left,
+			int top) {
+		ResultPoint[] points = result.getResultPoints();
+		ResultPoint[] translatedPoints = null;
+		if (points != null) {
+			translatedPoints = new ResultPoint[points.length];
+			for (int i = 0; i < points.length; i++) {
+				if (points[i] != null) {
+					translatedPoints[i] = new ResultPoint(points[i].getX()
+							* scale + left, points[i].getY() * scale + top);
+				}
+			}
+		}
+		Result res = new Result(result.getText(), result.getRawBytes(),
+				translatedPoints, result.getBarcodeFormat(),
+				result.getTimestamp());
+		Map<ResultMetadataType, Object> metadata = result.getResultMetadata();
+		if (metadata != null) {
+			res.putAllMetadata(metadata);
+		}
+		return res;
+	}
+
+	/**
+	 * Adapter letting {@link GenericMultipleBarcodeReader} use a
+	 * {@link MultiFormatReader} whose hints are already set, instead of
+	 * setting them again for each searched part of the frame.
+	 */
+	private static final class PreparedReader implements Reader {
+
+		private final MultiFormatReader reader;
+
+		public PreparedReader(MultiFormatReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public Result decode(BinaryBitmap image) throws NotFoundException {
+			return reader.decodeWithState(image);
+		}
+
+		@Override
+		public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints)
+				throws NotFoundException {
+			return reader.decodeWithState(image);
+		}
+
+		@Override
+		public void reset() {
+			reader.reset();
+		}
+
+	}
+
+}
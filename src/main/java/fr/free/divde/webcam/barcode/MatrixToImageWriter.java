@@ -16,6 +16,7 @@
 
 package fr.free.divde.webcam.barcode;
 
+import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 
 import javax.imageio.ImageIO;
@@ -23,6 +24,8 @@ import java.io.File;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
 
 /**
  * Writes a {@link BitMatrix} to {@link BufferedImage}, file or stream. Provided
@@ -35,6 +38,14 @@ public final class MatrixToImageWriter {
 	private static final int BLACK = 0xFF000000;
 	private static final int WHITE = 0xFFFFFFFF;
 
+	private static final byte[] REVERSED_BYTES = new byte[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			REVERSED_BYTES[i] = (byte) (Integer.reverse(i) >>> 24);
+		}
+	}
+
 	private MatrixToImageWriter() {
 	}
 
@@ -43,14 +54,50 @@ public final class MatrixToImageWriter {
 	 * as white, and "true" bits are rendered as black.
 	 */
 	public static BufferedImage toBufferedImage(BitMatrix matrix) {
+		return toBufferedImage(matrix, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Renders a {@link BitMatrix} as an image of the given type, which can be
+	 * {@link BufferedImage#TYPE_INT_RGB} or
+	 * {@link BufferedImage#TYPE_BYTE_BINARY} (one bit per pixel, much smaller
+	 * but not supported by the JPEG writer). The image is written one row at
+	 * a time in its raster.
+	 */
+	public static BufferedImage toBufferedImage(BitMatrix matrix, int imageType) {
 		int width = matrix.getWidth();
 		int height = matrix.getHeight();
-		BufferedImage image = new BufferedImage(width, height,
-				BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < width; x++) {
+		BufferedImage image = new BufferedImage(width, height, imageType);
+		WritableRaster raster = image.getRaster();
+		BitArray row = new BitArray(width);
+		if (imageType == BufferedImage.TYPE_INT_RGB) {
+			int[] pixels = new int[width];
+			for (int y = 0; y < height; y++) {
+				row = matrix.getRow(y, row);
+				for (int x = 0; x < width; x++) {
+					pixels[x] = row.get(x) ? BLACK : WHITE;
+				}
+				raster.setDataElements(0, y, width, 1, pixels);
+			}
+		} else if (imageType == BufferedImage.TYPE_BYTE_BINARY) {
+			// 8 pixels per byte, the leftmost one in the most significant
+			// bit, with 1 for white in the default palette, whereas the bits
+			// of a row of the matrix are in 32-bit words, the leftmost one in
+			// the least significant bit, with 1 for black
+			byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int stride = (width + 7) / 8;
 			for (int y = 0; y < height; y++) {
-				image.setRGB(x, y, matrix.get(x, y) ? BLACK : WHITE);
+				int[] bits = matrix.getRow(y, row).getBitArray();
+				int offset = y * stride;
+				for (int i = 0; i < stride; i++) {
+					int x = i * 8;
+					int blackBits = (bits[x >> 5] >>> (x & 31)) & 0xFF;
+					data[offset + i] = (byte) ~REVERSED_BYTES[blackBits];
+				}
 			}
+		} else {
+			throw new IllegalArgumentException("Unsupported image type: "
+					+ imageType);
 		}
 		return image;
 	}
@@ -0,0 +1,98 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * LuminanceSource reading from a plane of luminance values (one byte per
+ * pixel, row by row), such as the one computed once per frame by
+ * {@link fr.free.divde.webcam.image.Frame}. The plane is never modified nor
+ * copied, except when a cropped matrix is requested.
+ */
+public final class PlanarLuminanceSource extends LuminanceSource {
+
+	private final byte[] luminance;
+	private final int dataWidth;
+	private final int dataHeight;
+	private final int left;
+	private final int top;
+
+	public PlanarLuminanceSource(byte[] luminance, int dataWidth,
+			int dataHeight) {
+		this(luminance, dataWidth, dataHeight, 0, 0, dataWidth, dataHeight);
+	}
+
+	public PlanarLuminanceSource(byte[] luminance, int dataWidth,
+			int dataHeight, int left, int top, int width, int height) {
+		super(width, height);
+		if (left + width > dataWidth || top + height > dataHeight) {
+			throw new IllegalArgumentException(
+					"Crop rectangle does not fit within image data.");
+		}
+		this.luminance = luminance;
+		this.dataWidth = dataWidth;
+		this.dataHeight = dataHeight;
+		this.left = left;
+		this.top = top;
+	}
+
+	@Override
+	public byte[] getRow(int y, byte[] row) {
+		if (y < 0 || y >= getHeight()) {
+			throw new IllegalArgumentException(
+					"Requested row is outside the image: " + y);
+		}
+		int width = getWidth();
+		if (row == null || row.length < width) {
+			row = new byte[width];
+		}
+		System.arraycopy(luminance, (top + y) * dataWidth + left, row, 0,
+				width);
+		return row;
+	}
+
+	@Override
+	public byte[] getMatrix() {
+		int width = getWidth();
+		int height = getHeight();
+		if (width == dataWidth && height == dataHeight) {
+			return luminance;
+		}
+		byte[] matrix = new byte[width * height];
+		int inputOffset = top * dataWidth + left;
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(luminance, inputOffset, matrix, y * width, width);
+			inputOffset += dataWidth;
+		}
+		return matrix;
+	}
+
+	@Override
+	public boolean isCropSupported() {
+		return true;
+	}
+
+	@Override
+	public LuminanceSource crop(int left, int top, int width, int height) {
+		return new PlanarLuminanceSource(luminance, dataWidth, dataHeight,
+				this.left + left, this.top + top, width, height);
+	}
+
+}
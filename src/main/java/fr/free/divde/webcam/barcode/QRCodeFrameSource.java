@@ -0,0 +1,182 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+import org.openimaj.image.MBFImage;
+import org.openimaj.image.colour.ColourSpace;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import fr.free.divde.webcam.image.ReplayFrameSource;
+
+/**
+ * Frame source generating a sequence of frames, each of them containing one or
+ * several QR codes with a different content and at a different position. As
+ * the time at which each content was last sent is recorded, the delay between
+ * a frame and the detection of its QR codes can be measured with
+ * {@link #getSentTime(String)}.
+ *
+ * The content of the QR codes is "frame-" followed by the index of the frame,
+ * and, if there are several codes per frame, by "/" and the index of the code.
+ */
+public class QRCodeFrameSource extends ReplayFrameSource {
+
+	public static final String CONTENT_PREFIX = "frame-";
+	private static final char CODE_SEPARATOR = '/';
+	private static final int DEFAULT_WIDTH = 640;
+	private static final int DEFAULT_HEIGHT = 480;
+	private static final int MOTION_RATIO = 8;
+
+	@Getter
+	private final int imageCount;
+	@Getter
+	private final int codesPerFrame;
+	private MBFImage[] images;
+	private long[] sentTimes;
+	@Getter
+	private int width;
+	@Getter
+	private int height;
+
+	public QRCodeFrameSource(int imageCount) {
+		this(imageCount, 1);
+	}
+
+	public QRCodeFrameSource(int imageCount, int codesPerFrame) {
+		if (codesPerFrame < 1) {
+			throw new IllegalArgumentException(
+					"There must be at least one QR code per frame.");
+		}
+		this.imageCount = imageCount;
+		this.codesPerFrame = codesPerFrame;
+	}
+
+	@Override
+	protected void load(int requestedWidth, int requestedHeight)
+			throws IOException {
+		width = requestedWidth > 0 ? requestedWidth : DEFAULT_WIDTH;
+		height = requestedHeight > 0 ? requestedHeight : DEFAULT_HEIGHT;
+		// codes are laid out on a grid, in cells of the same size
+		int columns = (int) Math.ceil(Math.sqrt(codesPerFrame));
+		int rows = (codesPerFrame + columns - 1) / columns;
+		int cellWidth = width / columns;
+		int cellHeight = height / rows;
+		int codeSize = Math.min(cellWidth, cellHeight) / 2;
+		QRCodeWriter writer = new QRCodeWriter();
+		MBFImage[] res = new MBFImage[imageCount];
+		for (int i = 0; i < imageCount; i++) {
+			MBFImage image = new MBFImage(width, height, ColourSpace.RGB);
+			image.fill(new Float[] { 1f, 1f, 1f });
+			// move the codes slightly along a circle from one frame to the
+			// next, as hand-held codes would
+			double angle = 2 * Math.PI * i / imageCount;
+			int dx = (int) ((cellWidth - codeSize) / MOTION_RATIO * Math
+					.cos(angle));
+			int dy = (int) ((cellHeight - codeSize) / MOTION_RATIO * Math
+					.sin(angle));
+			for (int code = 0; code < codesPerFrame; code++) {
+				BitMatrix matrix;
+				try {
+					matrix = writer.encode(getContent(i, code),
+							BarcodeFormat.QR_CODE, codeSize, codeSize);
+				} catch (WriterException e) {
+					throw new IOException("Unable to generate QR code.", e);
+				}
+				int left = (code % columns) * cellWidth
+						+ (cellWidth - codeSize) / 2 + dx;
+				int top = (code / columns) * cellHeight
+						+ (cellHeight - codeSize) / 2 + dy;
+				drawCode(image, matrix, left, top);
+			}
+			res[i] = image;
+		}
+		images = res;
+		sentTimes = new long[imageCount];
+	}
+
+	private String getContent(int imageIndex, int code) {
+		if (codesPerFrame == 1) {
+			return CONTENT_PREFIX + imageIndex;
+		}
+		return CONTENT_PREFIX + imageIndex + CODE_SEPARATOR + code;
+	}
+
+	private void drawCode(MBFImage image, BitMatrix matrix, int left, int top) {
+		int bands = image.numBands();
+		for (int b = 0; b < bands; b++) {
+			float[][] pixels = image.getBand(b).pixels;
+			for (int matrixY = 0; matrixY < matrix.getHeight(); matrixY++) {
+				int y = top + matrixY;
+				if (y < 0 || y >= height) {
+					continue;
+				}
+				for (int matrixX = 0; matrixX < matrix.getWidth(); matrixX++) {
+					int x = left + matrixX;
+					if (x >= 0 && x < width && matrix.get(matrixX, matrixY)) {
+						pixels[y][x] = 0f;
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected MBFImage getFrame(long index) {
+		int imageIndex = (int) (index % imageCount);
+		synchronized (sentTimes) {
+			sentTimes[imageIndex] = System.nanoTime();
+		}
+		return images[imageIndex];
+	}
+
+	/**
+	 * Returns the value of {@link System#nanoTime()} when the frame containing
+	 * the given QR code content was last sent, or -1 if the content does not
+	 * come from this source.
+	 */
+	public long getSentTime(String content) {
+		if (sentTimes == null || !content.startsWith(CONTENT_PREFIX)) {
+			return -1;
+		}
+		int end = content.indexOf(CODE_SEPARATOR);
+		if (end < 0) {
+			end = content.length();
+		}
+		try {
+			int imageIndex = Integer.parseInt(content.substring(
+					CONTENT_PREFIX.length(), end));
+			if (imageIndex < 0 || imageIndex >= imageCount) {
+				return -1;
+			}
+			synchronized (sentTimes) {
+				return sentTimes[imageIndex];
+			}
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
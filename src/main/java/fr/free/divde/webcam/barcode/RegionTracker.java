@@ -0,0 +1,125 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import com.google.zxing.ResultPoint;
+
+/**
+ * Remembers where the last barcode was found, so that the next frames can
+ * first be decoded in that region only. Shared by all the decoding threads of
+ * a {@link BarCodeReader}.
+ */
+final class RegionTracker {
+
+	@Getter
+	@Setter
+	private volatile boolean enabled = true;
+	/**
+	 * Margin added on each side of the bounding box of the result points,
+	 * relative to the largest dimension of that box. For QR codes, the result
+	 * points are the centers of the finder patterns, so the margin must be
+	 * more than half of the box to include the whole code and its quiet zone.
+	 */
+	@Getter
+	@Setter
+	private volatile float padding = 1f;
+
+	private Rectangle region;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the region to try first in a frame of the given size, or null
+	 * if the whole frame has to be decoded.
+	 */
+	public synchronized Rectangle getRegion(int width, int height) {
+		if (!enabled || region == null) {
+			return null;
+		}
+		Rectangle res = region.intersection(new Rectangle(width, height));
+		return res.isEmpty() ? null : res;
+	}
+
+	/**
+	 * Records the position of a barcode found in a frame.
+	 */
+	public synchronized void found(ResultPoint[] points) {
+		if (points == null || points.length == 0) {
+			region = null;
+			return;
+		}
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (ResultPoint point : points) {
+			if (point == null) {
+				continue;
+			}
+			minX = Math.min(minX, point.getX());
+			minY = Math.min(minY, point.getY());
+			maxX = Math.max(maxX, point.getX());
+			maxY = Math.max(maxY, point.getY());
+		}
+		if (minX > maxX) {
+			region = null;
+			return;
+		}
+		int margin = (int) (padding * Math.max(maxX - minX, maxY - minY));
+		int left = (int) minX - margin;
+		int top = (int) minY - margin;
+		region = new Rectangle(left, top, (int) maxX + margin - left + 1,
+				(int) maxY + margin - top + 1);
+	}
+
+	/**
+	 * Forgets the last position, as no barcode was found in the whole frame.
+	 */
+	public synchronized void lost() {
+		region = null;
+	}
+
+	void regionHit() {
+		hits.incrementAndGet();
+	}
+
+	void regionMissed() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of frames decoded from the tracked region only.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of frames for which nothing was found in the
+	 * tracked region, so that the whole frame had to be decoded.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.barcode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import fr.free.divde.webcam.image.Frame;
+
+/**
+ * Cheap detector of changes between consecutive frames, used to avoid
+ * decoding frames when nothing moves in front of the camera.
+ *
+ * Each frame is summarized by the average luminance of the cells of a coarse
+ * grid, computed on a subset of its pixels. A frame is considered changed
+ * when the luminance of any cell differs from the previous frame by more than
+ * a threshold: averaging the differences over the whole grid would hide a
+ * small barcode entering a still scene, which only changes a few cells.
+ * Averaging the pixels of each cell already filters out the sensor noise.
+ * Frames keep being decoded for a few frames after the last change, as the
+ * image only becomes sharp once the motion stops.
+ *
+ * Only the frames which can be decoded right away must be given to the
+ * detector, so that the frames following a change are not used up while the
+ * decoding threads are busy.
+ */
+final class SceneChangeDetector {
+
+	private static final int GRID_WIDTH = 16;
+	private static final int GRID_HEIGHT = 12;
+	private static final int SAMPLE_STEP = 2;
+
+	@Getter
+	@Setter
+	private volatile boolean enabled = true;
+	/**
+	 * Absolute difference (in luminance levels, from 0 to 255) between the
+	 * average luminances of a cell in two frames above which the scene is
+	 * considered changed.
+	 */
+	@Getter
+	@Setter
+	private volatile float changeThreshold = 8f;
+	/**
+	 * Number of frames still decoded after the last change.
+	 */
+	@Getter
+	@Setter
+	private volatile int settleFrames = 5;
+
+	private int[] signature = new int[GRID_WIDTH * GRID_HEIGHT];
+	private int[] previousSignature = new int[GRID_WIDTH * GRID_HEIGHT];
+	private final int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+	private boolean hasPreviousSignature;
+	private int framesSinceChange;
+
+	private final AtomicLong skippedFrames = new AtomicLong();
+	private final AtomicLong acceptedFrames = new AtomicLong();
+
+	/**
+	 * Returns true if the given frame has to be decoded, false if it is
+	 * similar enough to the previous ones to be skipped.
+	 */
+	public synchronized boolean accept(Frame frame) {
+		if (!enabled) {
+			hasPreviousSignature = false;
+			acceptedFrames.incrementAndGet();
+			return true;
+		}
+		computeSignature(frame);
+		boolean changed = !hasPreviousSignature
+				|| difference() > changeThreshold;
+		int[] swap = previousSignature;
+		previousSignature = signature;
+		signature = swap;
+		hasPreviousSignature = true;
+		if (changed) {
+			framesSinceChange = 0;
+		} else if (framesSinceChange <= settleFrames) {
+			framesSinceChange++;
+		}
+		if (framesSinceChange <= settleFrames) {
+			acceptedFrames.incrementAndGet();
+			return true;
+		}
+		skippedFrames.incrementAndGet();
+		return false;
+	}
+
+	private void computeSignature(Frame frame) {
+		byte[] luminance = frame.getLuminance();
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		for (int i = 0; i < signature.length; i++) {
+			signature[i] = 0;
+			counts[i] = 0;
+		}
+		for (int y = 0; y < height; y += SAMPLE_STEP) {
+			int rowOffset = y * width;
+			int cellRow = (y * GRID_HEIGHT / height) * GRID_WIDTH;
+			for (int x = 0; x < width; x += SAMPLE_STEP) {
+				int cell = cellRow + x * GRID_WIDTH / width;
+				signature[cell] += luminance[rowOffset + x] & 0xFF;
+				counts[cell]++;
+			}
+		}
+		for (int i = 0; i < signature.length; i++) {
+			if (counts[i] > 0) {
+				signature[i] /= counts[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the largest difference between the cells of the two
+	 * signatures.
+	 */
+	private int difference() {
+		int res = 0;
+		for (int i = 0; i < signature.length; i++) {
+			res = Math.max(res, Math.abs(signature[i] - previousSignature[i]));
+		}
+		return res;
+	}
+
+	/**
+	 * Returns true if the last frame did not differ from the previous one
+	 * while still being accepted, meaning that the scene has just become
+	 * still.
+	 */
+	public synchronized boolean isStill() {
+		return enabled && hasPreviousSignature && framesSinceChange > 0;
+	}
+
+	/**
+	 * Returns the number of frames skipped because the scene did not change.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames.get();
+	}
+
+	/**
+	 * Returns the number of frames which passed the detector.
+	 */
+	public long getAcceptedFrames() {
+		return acceptedFrames.get();
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures a given number of frames, separated by a given interval, and gives
+ * them to another listener. The interval is measured between the capture
+ * times of the frames and paced as by {@link FrameRateLimiter}, so that the
+ * latency of the delivery does not make the burst drift. Once started, the burst registers
+ * itself as an image listener of the webcam, and removes itself after the
+ * last frame. As for any image listener, frames arriving while the previous
+ * one is still processed are skipped, so a slow target only makes the burst
+ * longer.
+ */
+public final class BurstCapture implements ImageListener {
+
+	private final Webcam webcam;
+	private final int frameCount;
+	private final long interval;
+	private final ImageListener target;
+
+	// the following fields are guarded by this
+	private int capturedFrames;
+	private final FrameRateLimiter rateLimiter = new FrameRateLimiter();
+
+	/**
+	 * Creates a burst of frameCount frames from the given webcam, separated
+	 * by interval milliseconds, given to target.
+	 */
+	public BurstCapture(Webcam webcam, int frameCount, long interval,
+			ImageListener target) {
+		if (frameCount < 1) {
+			throw new IllegalArgumentException(
+					"A burst needs at least one frame.");
+		}
+		this.webcam = webcam;
+		this.frameCount = frameCount;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+		this.target = target;
+	}
+
+	public void start() {
+		webcam.addImageListener(this);
+	}
+
+	/**
+	 * Stops the burst before its last frame.
+	 */
+	public void cancel() {
+		webcam.removeImageListener(this);
+	}
+
+	@Override
+	public synchronized void nextFrame(Frame frame) {
+		if (capturedFrames >= frameCount) {
+			return;
+		}
+		if (!rateLimiter.acceptInterval(frame.getCaptureTime(), interval)) {
+			return;
+		}
+		capturedFrames++;
+		try {
+			target.nextFrame(frame);
+		} finally {
+			if (capturedFrames >= frameCount) {
+				webcam.removeImageListener(this);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames already given to the target.
+	 */
+	public synchronized int getCapturedFrames() {
+		return capturedFrames;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+}
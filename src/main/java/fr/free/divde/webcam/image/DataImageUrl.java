@@ -19,24 +19,117 @@
 package fr.free.divde.webcam.image;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
-import org.apache.commons.codec.binary.Base64;
-
+/**
+ * Creates data URLs from images. The compressed image is Base64-encoded while
+ * it is written, directly into the buffer of the URL (see
+ * {@link DataUrlOutputStream}), without writing it to a temporary file nor
+ * keeping a copy of it. That buffer is sized from the compression ratio of the
+ * previous image of the same format and quality, so that it rarely has to
+ * grow.
+ */
 public class DataImageUrl {
+
+	/**
+	 * Quality letting the image writer use its default compression.
+	 */
+	public static final float DEFAULT_QUALITY = -1;
+	private static final double DEFAULT_BYTES_PER_PIXEL = 1;
+	private static final double SIZE_MARGIN = 1.1;
+	private static final Map<String, Double> BYTES_PER_PIXEL = new ConcurrentHashMap<String, Double>();
+
 	public static String imageToDataURL(BufferedImage image, String format,
 			String mimeType) throws IOException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		ImageIO.write(image, format, out);
-		byte[] imageBytes = out.toByteArray();
-		String base64 = Base64.encodeBase64String(imageBytes);
-		StringBuilder res = new StringBuilder("data:");
-		res.append(mimeType);
-		res.append(";base64,");
-		res.append(base64);
-		return res.toString();
+		return imageToDataURL(image, format, DEFAULT_QUALITY, mimeType);
+	}
+
+	/**
+	 * Creates a data URL from the given image compressed in the given format
+	 * and quality (see
+	 * {@link #writeImage(BufferedImage, String, float, OutputStream)}).
+	 */
+	public static String imageToDataURL(BufferedImage image, String format,
+			float quality, String mimeType) throws IOException {
+		long pixels = (long) image.getWidth() * image.getHeight();
+		String sizeKey = format + ":" + quality;
+		Double bytesPerPixel = BYTES_PER_PIXEL.get(sizeKey);
+		double expectedBytes = pixels
+				* (bytesPerPixel != null ? bytesPerPixel * SIZE_MARGIN
+						: DEFAULT_BYTES_PER_PIXEL);
+		DataUrlOutputStream out = new DataUrlOutputStream(mimeType,
+				(int) Math.min(expectedBytes, Integer.MAX_VALUE / 2));
+		writeImage(image, format, quality, out);
+		out.close();
+		if (pixels > 0) {
+			BYTES_PER_PIXEL.put(sizeKey, (double) out.getByteCount() / pixels);
+		}
+		return out.toString();
 	}
+
+	/**
+	 * Creates a data URL from an image already compressed.
+	 */
+	public static String bytesToDataURL(byte[] bytes, String mimeType)
+			throws IOException {
+		DataUrlOutputStream out = new DataUrlOutputStream(mimeType,
+				bytes.length);
+		out.write(bytes);
+		out.close();
+		return out.toString();
+	}
+
+	public static void writeImage(BufferedImage image, String format,
+			OutputStream out) throws IOException {
+		writeImage(image, format, DEFAULT_QUALITY, out);
+	}
+
+	/**
+	 * Writes the given image in the given format to a stream, as
+	 * {@link ImageIO#write(java.awt.image.RenderedImage, String, java.io.OutputStream)}
+	 * does, but buffering in memory instead of in a temporary file, and
+	 * throwing an exception if there is no writer for this image and format.
+	 * The quality, from 0 to 1, is only used by the formats with lossy
+	 * compression; a negative quality keeps the default one of the writer.
+	 * The stream is not closed.
+	 */
+	public static void writeImage(BufferedImage image, String format,
+			float quality, OutputStream out) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWriters(
+				ImageTypeSpecifier.createFromRenderedImage(image), format);
+		if (!writers.hasNext()) {
+			throw new IOException("No image writer for this type of image in "
+					+ format + " format.");
+		}
+		ImageWriter writer = writers.next();
+		ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
+		try {
+			writer.setOutput(imageOut);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (quality >= 0 && param.canWriteCompressed()) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				if (param.getCompressionType() == null) {
+					param.setCompressionType(param.getCompressionTypes()[0]);
+				}
+				param.setCompressionQuality(Math.min(quality, 1f));
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			imageOut.close();
+		}
+	}
+
 }
@@ -0,0 +1,154 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Stream building a data URL: the bytes written to it are Base64-encoded as
+ * they arrive, directly into a character buffer which already contains the
+ * "data:[mimeType];base64," prefix. The encoded bytes are never stored, and
+ * the buffer is only copied once, when the URL is returned by
+ * {@link #toString()}, or more if the initial capacity was too small.
+ */
+final class DataUrlOutputStream extends OutputStream {
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+
+	private char[] buffer;
+	private int length;
+	private final int prefixLength;
+	// up to 2 bytes waiting for a complete group of 3:
+	private int pending;
+	private int pendingCount;
+	private boolean closed;
+
+	/**
+	 * Creates the stream with room for the Base64 encoding of the given
+	 * number of bytes.
+	 */
+	public DataUrlOutputStream(String mimeType, int expectedBytes) {
+		String prefix = "data:" + mimeType + ";base64,";
+		prefixLength = prefix.length();
+		buffer = new char[prefixLength + encodedLength(expectedBytes)];
+		prefix.getChars(0, prefixLength, buffer, 0);
+		length = prefixLength;
+	}
+
+	private static int encodedLength(int bytes) {
+		return (bytes + 2) / 3 * 4;
+	}
+
+	/**
+	 * Returns the number of bytes written to this stream.
+	 */
+	public int getByteCount() {
+		return (length - prefixLength) / 4 * 3 + pendingCount;
+	}
+
+	private void ensureCapacity(int extraChars) {
+		int needed = length + extraChars;
+		if (needed > buffer.length) {
+			buffer = Arrays.copyOf(buffer,
+					Math.max(needed, buffer.length + (buffer.length >> 1)));
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int count) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed.");
+		}
+		int end = offset + count;
+		// complete the pending group first
+		while (pendingCount > 0 && offset < end) {
+			pending = (pending << 8) | (bytes[offset++] & 0xFF);
+			pendingCount++;
+			if (pendingCount == 3) {
+				ensureCapacity(4);
+				encodeGroup(pending);
+				pendingCount = 0;
+				pending = 0;
+			}
+		}
+		int groups = (end - offset) / 3;
+		ensureCapacity(groups * 4);
+		char[] chars = buffer;
+		int charIndex = length;
+		for (int i = 0; i < groups; i++) {
+			int group = ((bytes[offset] & 0xFF) << 16)
+					| ((bytes[offset + 1] & 0xFF) << 8)
+					| (bytes[offset + 2] & 0xFF);
+			offset += 3;
+			chars[charIndex++] = ALPHABET[group >>> 18];
+			chars[charIndex++] = ALPHABET[(group >>> 12) & 0x3F];
+			chars[charIndex++] = ALPHABET[(group >>> 6) & 0x3F];
+			chars[charIndex++] = ALPHABET[group & 0x3F];
+		}
+		length = charIndex;
+		while (offset < end) {
+			pending = (pending << 8) | (bytes[offset++] & 0xFF);
+			pendingCount++;
+		}
+	}
+
+	private void encodeGroup(int group) {
+		buffer[length++] = ALPHABET[group >>> 18];
+		buffer[length++] = ALPHABET[(group >>> 12) & 0x3F];
+		buffer[length++] = ALPHABET[(group >>> 6) & 0x3F];
+		buffer[length++] = ALPHABET[group & 0x3F];
+	}
+
+	/**
+	 * Encodes the last bytes, with padding.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (pendingCount > 0) {
+			ensureCapacity(4);
+			int group = pending << (8 * (3 - pendingCount));
+			buffer[length++] = ALPHABET[group >>> 18];
+			buffer[length++] = ALPHABET[(group >>> 12) & 0x3F];
+			buffer[length++] = pendingCount == 2 ? ALPHABET[(group >>> 6) & 0x3F]
+					: '=';
+			buffer[length++] = '=';
+		}
+	}
+
+	/**
+	 * Returns the data URL, once the stream is closed.
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length);
+	}
+
+}
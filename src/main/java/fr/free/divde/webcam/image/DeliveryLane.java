@@ -0,0 +1,179 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.free.divde.webcam.metrics.PipelineMetrics;
+
+/**
+ * Delivers frames to a single listener on its own thread. The mailbox holds at
+ * most one frame: a frame arriving while the previous one is still waiting
+ * replaces it (and is counted as dropped), so that a slow listener never
+ * blocks the capture thread and always receives the latest frame.
+ *
+ * Frames which do not match the {@link ImageSubscription} of the listener are
+ * skipped before reaching the mailbox.
+ */
+final class DeliveryLane implements Runnable {
+
+	private final ImageListener listener;
+	private final ImageSubscription subscription;
+	private final PipelineMetrics metrics;
+	private final AtomicLong deliveredFrames = new AtomicLong();
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private final AtomicLong skippedFrames = new AtomicLong();
+
+	// the following fields are guarded by this
+	private Frame pending;
+	private Thread thread;
+	private boolean stopRequested;
+	private boolean delivering;
+	private long offeredFrames;
+	private final FrameRateLimiter rateLimiter = new FrameRateLimiter();
+
+	public DeliveryLane(ImageListener listener,
+			ImageSubscription subscription, PipelineMetrics metrics) {
+		this.listener = listener;
+		this.subscription = subscription;
+		this.metrics = metrics;
+	}
+
+	public ImageSubscription getSubscription() {
+		return subscription;
+	}
+
+	public ImageListener getListener() {
+		return listener;
+	}
+
+	public long getDeliveredFrames() {
+		return deliveredFrames.get();
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	public long getSkippedFrames() {
+		return skippedFrames.get();
+	}
+
+	/**
+	 * Returns true if the given frame matches the subscription. Called with
+	 * the lock held.
+	 */
+	private boolean accept(Frame frame) {
+		offeredFrames++;
+		if (subscription.isOnlyWhenIdle() && (pending != null || delivering)) {
+			return false;
+		}
+		if ((offeredFrames - 1) % subscription.getEveryNthFrame() != 0) {
+			return false;
+		}
+		return rateLimiter.accept(frame.getCaptureTime(),
+				subscription.getMaxFrameRate());
+	}
+
+	/**
+	 * Puts the given frame in the mailbox, replacing any frame which was not
+	 * yet delivered, unless the frame does not match the subscription. Never
+	 * blocks. The lane retains the frame until it is delivered or replaced.
+	 */
+	public synchronized void offer(Frame frame) {
+		if (!accept(frame)) {
+			skippedFrames.incrementAndGet();
+			return;
+		}
+		frame.retain();
+		if (pending != null) {
+			droppedFrames.incrementAndGet();
+			metrics.frameDropped();
+			pending.release();
+		}
+		pending = frame;
+		stopRequested = false;
+		if (thread == null) {
+			thread = new Thread(this);
+			thread.setName("Webcam delivery - "
+					+ listener.getClass().getName());
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Discards the pending frame, if any, and lets the delivery thread end
+	 * once the current delivery is finished. The thread is started again on
+	 * the next call to {@link #offer(Frame)}.
+	 */
+	public synchronized void stop() {
+		if (pending != null) {
+			droppedFrames.incrementAndGet();
+			metrics.frameDropped();
+			pending.release();
+			pending = null;
+		}
+		stopRequested = true;
+		notifyAll();
+	}
+
+	private synchronized Frame take() throws InterruptedException {
+		delivering = false;
+		while (pending == null && !stopRequested) {
+			wait();
+		}
+		if (pending == null) {
+			thread = null;
+			return null;
+		}
+		Frame res = pending;
+		pending = null;
+		delivering = true;
+		return res;
+	}
+
+	@Override
+	public void run() {
+		try {
+			Frame frame;
+			while ((frame = take()) != null) {
+				try {
+					listener.nextFrame(frame);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				} finally {
+					frame.release();
+				}
+				deliveredFrames.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			synchronized (this) {
+				delivering = false;
+				if (thread == Thread.currentThread()) {
+					thread = null;
+				}
+			}
+		}
+	}
+
+}
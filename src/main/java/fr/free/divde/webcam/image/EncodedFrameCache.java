@@ -0,0 +1,186 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compressed versions of frames, so that a frame requested several times in
+ * the same format and quality (for example by simultaneous uploads and data
+ * URLs) is only compressed once. Consumers asking for an encoding which is in
+ * progress wait for it instead of starting their own.
+ *
+ * Keeping the compressed image as a byte array costs a copy, so only the
+ * encodings declared as shared by several consumers of the frame (see
+ * {@link #share(Frame, String, float, int)}) are cached. A single consumer
+ * should rather encode the frame straight to its destination, as told by
+ * {@link #isShared(Frame, String, float)}.
+ *
+ * An encoding stays cached until each of the consumers it was shared with
+ * is done with the frame (see {@link #consumed(Frame, String, float)}), even
+ * if newer frames arrive meanwhile. Frames are identified by their sequence
+ * number.
+ */
+public final class EncodedFrameCache {
+
+	// guarded by this
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	static String getKey(String format, float quality) {
+		return format + ":" + quality;
+	}
+
+	private static String getKey(Frame frame, String format, float quality) {
+		return frame.getSequenceNumber() + ":" + getKey(format, quality);
+	}
+
+	/**
+	 * Declares that the given frame is going to be requested by the given
+	 * number of consumers in the given format and quality, so that its
+	 * encoding is cached until they have all called
+	 * {@link #consumed(Frame, String, float)}.
+	 */
+	public synchronized void share(Frame frame, String format, float quality,
+			int consumers) {
+		String key = getKey(frame, format, quality);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry();
+			entries.put(key, entry);
+		}
+		entry.consumers += consumers;
+	}
+
+	/**
+	 * Records that one of the consumers declared with
+	 * {@link #share(Frame, String, float, int)} is done with the given frame,
+	 * whether it requested the encoding or not. The encoding is evicted when
+	 * the last consumer is done. Does nothing if the encoding was not shared.
+	 */
+	public synchronized void consumed(Frame frame, String format,
+			float quality) {
+		String key = getKey(frame, format, quality);
+		Entry entry = entries.get(key);
+		if (entry != null && --entry.consumers <= 0) {
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Returns true if the encoding of the given frame in the given format and
+	 * quality was declared as shared, and is cached.
+	 */
+	public synchronized boolean isShared(Frame frame, String format,
+			float quality) {
+		return entries.containsKey(getKey(frame, format, quality));
+	}
+
+	/**
+	 * Returns the given frame compressed in the given format and quality (see
+	 * {@link DataImageUrl#writeImage(java.awt.image.BufferedImage, String, float, java.io.OutputStream)}
+	 * ). The frame must be retained by the caller during the call. The
+	 * returned array is shared, so it must not be modified. The encoding is
+	 * only cached if it was declared as shared.
+	 */
+	public byte[] getEncodedImage(final Frame frame, final String format,
+			final float quality) throws IOException {
+		FutureTask<byte[]> task;
+		boolean encoder = false;
+		synchronized (this) {
+			Entry entry = entries.get(getKey(frame, format, quality));
+			task = entry != null ? entry.task : null;
+			if (task == null) {
+				task = new FutureTask<byte[]>(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						DataImageUrl.writeImage(frame.getBufferedImage(),
+								format, quality, out);
+						return out.toByteArray();
+					}
+				});
+				if (entry != null) {
+					entry.task = task;
+				}
+				encoder = true;
+			}
+		}
+		if (encoder) {
+			misses.incrementAndGet();
+			task.run();
+		} else {
+			hits.incrementAndGet();
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the encoding.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause.toString());
+		}
+	}
+
+	/**
+	 * Returns the number of encodings currently cached or declared as shared.
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of requests served by an encoding already done or
+	 * in progress.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of encodings done.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static final class Entry {
+
+		private FutureTask<byte[]> task;
+		private int consumers;
+
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+
+import org.openimaj.image.MBFImage;
+
+/**
+ * Captured frame, shared by all the image listeners.
+ *
+ * The frame is converted from the float bands of the {@link MBFImage} in a
+ * single pass, which produces both the packed RGB pixels and the luminance
+ * plane used for barcode decoding. The {@link BufferedImage} is only created,
+ * without copying the pixels, when a listener asks for it.
+ *
+ * Frames are reference counted: a frame is valid during the call to
+ * {@link ImageListener#nextFrame(Frame)}, and a listener which uses it after
+ * returning from that method must call {@link #retain()} before returning, and
+ * {@link #release()} when it is done. When the last reference is released, the
+ * memory of the frame goes back to its {@link FramePool}.
+ */
+public final class Frame {
+
+	@Getter
+	private final int width;
+	@Getter
+	private final int height;
+	@Getter
+	private final long sequenceNumber;
+	/**
+	 * Value of {@link System#nanoTime()} when the frame was captured.
+	 */
+	@Getter
+	private final long captureTime;
+	private final FrameBuffer buffer;
+	private final FramePool pool;
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	/**
+	 * Creates a frame which does not belong to any pool, with one reference
+	 * owned by the caller.
+	 */
+	public Frame(MBFImage image, long sequenceNumber) {
+		this(image, sequenceNumber, new FrameBuffer(image.getWidth(), image
+				.getHeight()), null);
+	}
+
+	Frame(MBFImage image, long sequenceNumber, FrameBuffer buffer,
+			FramePool pool) {
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.sequenceNumber = sequenceNumber;
+		this.captureTime = System.nanoTime();
+		this.buffer = buffer;
+		this.pool = pool;
+		convert(image, buffer.pixels, buffer.luminance);
+	}
+
+	private static int toByte(float value) {
+		int res = (int) (value * 255 + 0.5f);
+		return res < 0 ? 0 : (res > 255 ? 255 : res);
+	}
+
+	private static void convert(MBFImage image, int[] pixels,
+			byte[] luminance) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int bands = image.numBands();
+		float[][] red = image.getBand(0).pixels;
+		float[][] green = image.getBand(Math.min(1, bands - 1)).pixels;
+		float[][] blue = image.getBand(Math.min(2, bands - 1)).pixels;
+		for (int y = 0; y < height; y++) {
+			float[] redRow = red[y];
+			float[] greenRow = green[y];
+			float[] blueRow = blue[y];
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				int r = toByte(redRow[x]);
+				int g = toByte(greenRow[x]);
+				int b = toByte(blueRow[x]);
+				pixels[offset + x] = (r << 16) | (g << 8) | b;
+				// same integer approximation of Y = 0.299R + 0.587G + 0.114B
+				// as in BufferedImageLuminanceSource
+				luminance[offset + x] = (byte) ((306 * r + 601 * g + 117
+						* b + 0x200) >> 10);
+			}
+		}
+	}
+
+	/**
+	 * Adds a reference to this frame, which must be given back with
+	 * {@link #release()}.
+	 */
+	public Frame retain() {
+		if (references.getAndIncrement() <= 0) {
+			throw new IllegalStateException("Frame was already released.");
+		}
+		return this;
+	}
+
+	/**
+	 * Removes a reference to this frame. The frame must not be used anymore
+	 * by the caller afterwards.
+	 */
+	public void release() {
+		int remaining = references.decrementAndGet();
+		if (remaining == 0) {
+			if (pool != null) {
+				pool.recycle(buffer);
+			}
+		} else if (remaining < 0) {
+			throw new IllegalStateException("Frame was already released.");
+		}
+	}
+
+	/**
+	 * Returns the luminance of the frame, one byte per pixel, row by row. The
+	 * returned array must not be modified.
+	 */
+	public byte[] getLuminance() {
+		return buffer.luminance;
+	}
+
+	/**
+	 * Returns the frame as a {@link BufferedImage#TYPE_INT_RGB} image. The
+	 * image shares the pixels of the frame, so it must not be modified, nor
+	 * used after the frame is released.
+	 */
+	public BufferedImage getBufferedImage() {
+		return buffer.getBufferedImage();
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Memory backing a {@link Frame}: packed RGB pixels, luminance plane and the
+ * {@link BufferedImage} sharing the RGB pixels. Buffers are recycled from one
+ * frame to another by {@link FramePool}.
+ */
+final class FrameBuffer {
+
+	private static final int RED_MASK = 0xFF0000;
+	private static final int GREEN_MASK = 0x00FF00;
+	private static final int BLUE_MASK = 0x0000FF;
+
+	final int width;
+	final int height;
+	final int[] pixels;
+	final byte[] luminance;
+	private BufferedImage bufferedImage;
+
+	public FrameBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int area = width * height;
+		pixels = new int[area];
+		luminance = new byte[area];
+	}
+
+	public boolean fits(int width, int height) {
+		return this.width == width && this.height == height;
+	}
+
+	/**
+	 * Returns a {@link BufferedImage#TYPE_INT_RGB} image sharing the RGB
+	 * pixels of this buffer. The image is created on the first call only.
+	 */
+	public synchronized BufferedImage getBufferedImage() {
+		if (bufferedImage == null) {
+			DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+			WritableRaster raster = Raster.createPackedRaster(buffer, width,
+					height, width, new int[] { RED_MASK, GREEN_MASK,
+							BLUE_MASK }, null);
+			DirectColorModel colorModel = new DirectColorModel(24, RED_MASK,
+					GREEN_MASK, BLUE_MASK);
+			bufferedImage = new BufferedImage(colorModel, raster, false, null);
+		}
+		return bufferedImage;
+	}
+
+}
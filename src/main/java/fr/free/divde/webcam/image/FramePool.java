@@ -0,0 +1,104 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+import org.openimaj.image.MBFImage;
+
+/**
+ * Pool of frame buffers. A frame taken from the pool goes back to it when it
+ * has been released by everyone who retained it (see {@link Frame#release()}
+ * ), so that, in steady state, capturing a frame does not allocate any pixel
+ * memory.
+ */
+public class FramePool {
+
+	/**
+	 * Maximum number of free buffers kept by the pool.
+	 */
+	@Getter
+	private final int capacity;
+	private final ArrayDeque<FrameBuffer> buffers = new ArrayDeque<FrameBuffer>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public FramePool(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns a new frame, containing the given image, with one reference
+	 * owned by the caller.
+	 */
+	public Frame createFrame(MBFImage image, long sequenceNumber) {
+		return new Frame(image, sequenceNumber, acquire(image.getWidth(),
+				image.getHeight()), this);
+	}
+
+	private FrameBuffer acquire(int width, int height) {
+		synchronized (buffers) {
+			FrameBuffer buffer;
+			while ((buffer = buffers.poll()) != null) {
+				if (buffer.fits(width, height)) {
+					hits.incrementAndGet();
+					return buffer;
+				}
+				// buffers of another size are useless from now on
+			}
+		}
+		misses.incrementAndGet();
+		return new FrameBuffer(width, height);
+	}
+
+	void recycle(FrameBuffer buffer) {
+		synchronized (buffers) {
+			if (buffers.size() < capacity) {
+				buffers.push(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames created with a recycled buffer.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of frames for which a new buffer had to be allocated.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of free buffers currently in the pool.
+	 */
+	public int getAvailableBuffers() {
+		synchronized (buffers) {
+			return buffers.size();
+		}
+	}
+
+}
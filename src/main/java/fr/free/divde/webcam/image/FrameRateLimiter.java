@@ -0,0 +1,81 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+/**
+ * Limits the rate of a sequence of frames, from their capture times.
+ *
+ * Capture times are taken when the frames are created, so they jitter around
+ * the period of the camera. Requiring each accepted frame to be at least one
+ * interval after the previous one would reject every frame arriving slightly
+ * early, and a 30 fps limit on a 30 fps camera would only let about 20 fps
+ * through. Instead, the time at which the next frame is allowed advances by
+ * the nominal interval at each accepted frame, so that an early frame is
+ * compensated by the next ones. That time is never left behind the last
+ * accepted frame, so that a pause in the capture does not let a burst of
+ * frames through afterwards.
+ *
+ * Not thread-safe: callers guard it with their own lock.
+ */
+public final class FrameRateLimiter {
+
+	private boolean started;
+	private long nextTime;
+
+	/**
+	 * Returns true if the frame captured at the given time (from
+	 * {@link System#nanoTime()}) is accepted with the given maximum number of
+	 * frames per second, 0 meaning no limit.
+	 */
+	public boolean accept(long captureTime, float maxFrameRate) {
+		if (maxFrameRate <= 0) {
+			started = false;
+			return true;
+		}
+		return acceptInterval(captureTime, (long) (1e9 / maxFrameRate));
+	}
+
+	/**
+	 * Returns true if the frame captured at the given time (from
+	 * {@link System#nanoTime()}) is accepted with the given nominal interval
+	 * in nanoseconds between frames, 0 meaning no limit.
+	 */
+	public boolean acceptInterval(long captureTime, long interval) {
+		if (interval <= 0) {
+			started = false;
+			return true;
+		}
+		if (!started) {
+			started = true;
+			nextTime = captureTime + interval;
+			return true;
+		}
+		// capture times come from System.nanoTime(), so only their difference
+		// is meaningful
+		if (captureTime - nextTime < 0) {
+			return false;
+		}
+		nextTime += interval;
+		if (captureTime - nextTime > 0) {
+			nextTime = captureTime;
+		}
+		return true;
+	}
+
+}
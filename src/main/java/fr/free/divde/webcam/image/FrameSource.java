@@ -0,0 +1,47 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.io.IOException;
+
+import org.openimaj.image.MBFImage;
+
+/**
+ * Source of the frames captured by {@link Webcam}. A source is opened when the
+ * capture starts and closed when it stops; it can be opened again afterwards.
+ */
+public interface FrameSource {
+
+	public void open(int requestedWidth, int requestedHeight)
+			throws IOException;
+
+	public int getWidth();
+
+	public int getHeight();
+
+	/**
+	 * Returns the next frame, waiting for it if needed, or null if there are
+	 * no more frames. The returned image may be reused by the source for the
+	 * following frame.
+	 */
+	public MBFImage nextFrame() throws InterruptedException;
+
+	public void close();
+
+}
@@ -16,36 +16,211 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-
 package fr.free.divde.webcam.image;
 
-import java.awt.image.BufferedImage;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.Getter;
 
+/**
+ * Gives the next frame to the listeners which requested it with
+ * {@link #captureImage(ImageListener)}. All the requests pending when a frame
+ * arrives are served from that frame, and run on a small pool of threads
+ * shared by all the captures, so simultaneous requests cost a single frame
+ * and no thread creation. When several of these requests compress the frame
+ * in the same format and quality, the compressed image is shared through
+ * {@link #getEncodedFrameCache()}.
+ */
 public class ImageCapture {
 
-	private AtomicReference<ImageListener> subImageListener = new AtomicReference<ImageListener>();
+	private static final int DEFAULT_THREADS = 2;
+
+	private final Queue<Request> pendingCaptures = new ConcurrentLinkedQueue<Request>();
+	private final ExecutorService executor;
+	private final AtomicLong servedCaptures = new AtomicLong();
+	private final AtomicLong usedFrames = new AtomicLong();
+	@Getter
+	private final EncodedFrameCache encodedFrameCache = new EncodedFrameCache();
+
 	@Getter
 	private ImageListener imageListener = new ImageListener() {
 		@Override
-		public void nextFrame(final BufferedImage image) {
-			final ImageListener listener = subImageListener.getAndSet(null);
-			if (listener != null) {
-				Thread captureThread = new Thread(new Runnable() {
-					@Override
-					public void run() {
-						listener.nextFrame(image);
-					}
-				});
-				captureThread.start();
+		public void nextFrame(Frame frame) {
+			Request request = pendingCaptures.poll();
+			if (request == null) {
+				return;
+			}
+			List<Request> requests = new ArrayList<Request>();
+			do {
+				requests.add(request);
+			} while ((request = pendingCaptures.poll()) != null);
+			if (requests.size() > 1) {
+				shareEncodings(frame, requests);
 			}
+			for (Request served : requests) {
+				Capture capture = new Capture(served, frame.retain());
+				try {
+					executor.execute(capture);
+				} catch (RejectedExecutionException e) {
+					// the pool was shut down: the request is dropped
+					capture.finished();
+					e.printStackTrace();
+				}
+			}
+			usedFrames.incrementAndGet();
 		}
 	};
 
+	/**
+	 * Declares to the cache the encodings requested more than once for the
+	 * given frame, with the number of requests sharing each of them. The
+	 * other ones are left to their single consumer.
+	 */
+	private void shareEncodings(Frame frame, List<Request> requests) {
+		Map<String, Integer> consumers = new HashMap<String, Integer>();
+		for (Request request : requests) {
+			if (request.format != null) {
+				String key = EncodedFrameCache.getKey(request.format,
+						request.quality);
+				Integer count = consumers.get(key);
+				consumers.put(key, count == null ? 1 : count + 1);
+			}
+		}
+		for (Request request : requests) {
+			if (request.format != null) {
+				Integer count = consumers.remove(EncodedFrameCache.getKey(
+						request.format, request.quality));
+				if (count != null && count > 1) {
+					encodedFrameCache.share(frame, request.format,
+							request.quality, count);
+				}
+			}
+		}
+	}
+
+	public ImageCapture() {
+		this(DEFAULT_THREADS);
+	}
+
+	public ImageCapture(int threads) {
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setName("Image capture " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Gives the next frame to the given listener, on a thread of the capture
+	 * pool. Requests never replace each other.
+	 */
 	public void captureImage(ImageListener capture) {
-		subImageListener.set(capture);
+		captureImage(capture, null, DataImageUrl.DEFAULT_QUALITY);
+	}
+
+	/**
+	 * Gives the next frame to the given listener, which is going to compress
+	 * it in the given format and quality, so that the compressed image can be
+	 * shared with the other requests served from the same frame.
+	 */
+	public void captureImage(ImageListener capture, String format,
+			float quality) {
+		pendingCaptures.add(new Request(capture, format, quality));
+	}
+
+	/**
+	 * Returns the number of requests waiting for the next frame.
+	 */
+	public int getPendingCaptures() {
+		return pendingCaptures.size();
+	}
+
+	/**
+	 * Returns the number of requests given a frame.
+	 */
+	public long getServedCaptures() {
+		return servedCaptures.get();
+	}
+
+	/**
+	 * Returns the number of frames used to serve the requests, lower than
+	 * {@link #getServedCaptures()} when requests share a frame.
+	 */
+	public long getUsedFrames() {
+		return usedFrames.get();
+	}
+
+	/**
+	 * Lets the captures in progress finish, and stops the threads afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private static final class Request {
+
+		private final ImageListener listener;
+		private final String format;
+		private final float quality;
+
+		public Request(ImageListener listener, String format, float quality) {
+			this.listener = listener;
+			this.format = format;
+			this.quality = quality;
+		}
+
+	}
+
+	private final class Capture implements Runnable {
+
+		private final Request request;
+		private final Frame frame;
+
+		public Capture(Request request, Frame frame) {
+			this.request = request;
+			this.frame = frame;
+		}
+
+		@Override
+		public void run() {
+			try {
+				request.listener.nextFrame(frame);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				finished();
+				servedCaptures.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Gives back the frame and its shared encoding, if any.
+		 */
+		void finished() {
+			if (request.format != null) {
+				encodedFrameCache.consumed(frame, request.format,
+						request.quality);
+			}
+			frame.release();
+		}
+
 	}
 
 }
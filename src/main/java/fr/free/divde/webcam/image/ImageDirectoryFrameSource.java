@@ -0,0 +1,88 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openimaj.image.ImageUtilities;
+import org.openimaj.image.MBFImage;
+
+/**
+ * Frame source replaying, in alphabetical order, the images of a directory.
+ * All the images are loaded in memory when the source is opened, so that disk
+ * accesses do not interfere with throughput measurements. They must all have
+ * the same size.
+ */
+public class ImageDirectoryFrameSource extends ReplayFrameSource {
+
+	private final File directory;
+	private List<MBFImage> images;
+
+	public ImageDirectoryFrameSource(File directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	protected void load(int requestedWidth, int requestedHeight)
+			throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list the content of " + directory);
+		}
+		Arrays.sort(files);
+		List<MBFImage> res = new ArrayList<MBFImage>(files.length);
+		for (File file : files) {
+			if (!file.isFile()) {
+				continue;
+			}
+			MBFImage image = ImageUtilities.readMBF(file);
+			if (!res.isEmpty()
+					&& (image.getWidth() != res.get(0).getWidth() || image
+							.getHeight() != res.get(0).getHeight())) {
+				throw new IOException("Image " + file
+						+ " does not have the same size as the previous ones.");
+			}
+			res.add(image);
+		}
+		if (res.isEmpty()) {
+			throw new IOException("No image found in " + directory);
+		}
+		images = res;
+	}
+
+	@Override
+	public int getWidth() {
+		return images.get(0).getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return images.get(0).getHeight();
+	}
+
+	@Override
+	protected MBFImage getFrame(long index) {
+		return images.get((int) (index % images.size()));
+	}
+
+}
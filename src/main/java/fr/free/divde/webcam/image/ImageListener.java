@@ -18,11 +18,10 @@
 
 package fr.free.divde.webcam.image;
 
-import java.awt.image.BufferedImage;
 import java.util.EventListener;
 
 public interface ImageListener extends EventListener {
 
-	public void nextFrame(BufferedImage image);
+	public void nextFrame(Frame frame);
 
 }
@@ -0,0 +1,67 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Options of the registration of an image listener, which let each consumer
+ * receive frames at its own cadence. Frames filtered out by these options are
+ * skipped by the capture thread before being handed to the delivery thread of
+ * the listener, so they cost nothing. The options can be changed while the
+ * listener is registered.
+ */
+public final class ImageSubscription {
+
+	/**
+	 * Maximum number of frames delivered per second, or 0 for no limit.
+	 */
+	@Getter
+	@Setter
+	private volatile float maxFrameRate;
+	/**
+	 * Only one frame out of everyNthFrame is delivered.
+	 */
+	@Getter
+	private volatile int everyNthFrame = 1;
+	/**
+	 * If true, frames are only given to the listener while it is idle,
+	 * instead of waiting for the end of the current delivery.
+	 */
+	@Getter
+	@Setter
+	private volatile boolean onlyWhenIdle;
+
+	public ImageSubscription() {
+	}
+
+	public ImageSubscription(float maxFrameRate) {
+		this.maxFrameRate = maxFrameRate;
+	}
+
+	public void setEveryNthFrame(int everyNthFrame) {
+		if (everyNthFrame < 1) {
+			throw new IllegalArgumentException(
+					"everyNthFrame must be at least 1.");
+		}
+		this.everyNthFrame = everyNthFrame;
+	}
+
+}
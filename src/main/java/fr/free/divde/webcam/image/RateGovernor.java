@@ -0,0 +1,197 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Paces the capture thread of a {@link Webcam}. Before each frame is grabbed,
+ * the governor waits long enough to respect the target frame rate, the idle
+ * frame rate when no activity was reported recently, and the CPU budget.
+ *
+ * The CPU budget is enforced from the CPU time used by the whole process
+ * between two frames (capture, conversion and all the listeners, including
+ * the decoding threads): frames are spaced so that this time stays within the
+ * given fraction of one core. It is ignored if the JVM does not provide the
+ * CPU time of the process.
+ *
+ * The time spent in each stage of the capture thread is not kept here but in
+ * the {@link fr.free.divde.webcam.metrics.PipelineMetrics} of the webcam.
+ */
+final class RateGovernor {
+
+	private static final double SMOOTHING = 0.1;
+	/**
+	 * getProcessCpuTime of com.sun.management.OperatingSystemMXBean, looked
+	 * up by reflection as this interface is not available on every JVM. Null
+	 * if it is missing.
+	 */
+	private static final Method PROCESS_CPU_TIME = findProcessCpuTime();
+
+	/**
+	 * Maximum number of frames per second, 0 for no limit.
+	 */
+	@Getter
+	@Setter
+	private volatile double targetFrameRate;
+	/**
+	 * Maximum number of frames per second when no activity was reported
+	 * during the activity timeout, 0 to use the target frame rate.
+	 */
+	@Getter
+	@Setter
+	private volatile double idleFrameRate;
+	/**
+	 * Fraction of one processor core that the process may use, 0 for no
+	 * limit.
+	 */
+	@Getter
+	@Setter
+	private volatile double cpuBudget;
+	/**
+	 * Delay in milliseconds after the last reported activity before switching
+	 * to the idle frame rate.
+	 */
+	@Getter
+	@Setter
+	private volatile long activityTimeout = 2000;
+
+	private final OperatingSystemMXBean operatingSystem = ManagementFactory
+			.getOperatingSystemMXBean();
+	private volatile long lastActivity;
+	private volatile boolean activityReported;
+
+	// the following fields are only used by the capture thread
+	private long lastFrameStart;
+	private long lastSampleTime;
+	private long lastCpuTime = -1;
+	private double cpuTimePerFrame;
+
+	@Getter
+	private volatile double cpuUsage;
+	@Getter
+	private volatile long throttledTime;
+
+	/**
+	 * Records that something interesting happened, such as a barcode being
+	 * detected, so that frames are captured at the target frame rate instead
+	 * of the idle frame rate.
+	 */
+	public void reportActivity() {
+		lastActivity = System.nanoTime();
+		activityReported = true;
+	}
+
+	public boolean isIdle() {
+		return !activityReported
+				|| System.nanoTime() - lastActivity > TimeUnit.MILLISECONDS
+						.toNanos(activityTimeout);
+	}
+
+	/**
+	 * Resets the measures, when the capture starts.
+	 */
+	void reset() {
+		lastFrameStart = 0;
+		lastSampleTime = 0;
+		lastCpuTime = -1;
+		cpuTimePerFrame = 0;
+		cpuUsage = 0;
+	}
+
+	/**
+	 * Waits until the next frame can be grabbed.
+	 */
+	void awaitNextFrame() throws InterruptedException {
+		long now = System.nanoTime();
+		// CPU time used since the previous call, including the pause
+		long cpuTime = getProcessCpuTime();
+		if (lastCpuTime >= 0 && cpuTime >= 0 && now > lastSampleTime) {
+			long cpuDelta = cpuTime - lastCpuTime;
+			cpuTimePerFrame = smooth(cpuTimePerFrame, cpuDelta);
+			cpuUsage = smooth(cpuUsage, (double) cpuDelta
+					/ (now - lastSampleTime));
+		}
+		lastSampleTime = now;
+		lastCpuTime = cpuTime;
+		long period = 0;
+		double frameRate = targetFrameRate;
+		if (idleFrameRate > 0 && isIdle()
+				&& (frameRate <= 0 || idleFrameRate < frameRate)) {
+			frameRate = idleFrameRate;
+		}
+		if (frameRate > 0) {
+			period = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+		}
+		double budget = cpuBudget;
+		if (budget > 0 && cpuTime >= 0) {
+			period = Math.max(period, (long) (cpuTimePerFrame / budget));
+		}
+		long wait = lastFrameStart + period - now;
+		if (lastFrameStart != 0 && wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+			throttledTime += TimeUnit.NANOSECONDS.toMillis(wait);
+			now = System.nanoTime();
+		}
+		lastFrameStart = now;
+	}
+
+	private static double smooth(double average, double value) {
+		if (average == 0) {
+			return value;
+		}
+		return average + SMOOTHING * (value - average);
+	}
+
+	private static Method findProcessCpuTime() {
+		try {
+			return Class.forName("com.sun.management.OperatingSystemMXBean")
+					.getMethod("getProcessCpuTime");
+		} catch (Exception e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the CPU time in nanoseconds used by the process, or -1 if the
+	 * JVM does not provide it.
+	 */
+	private long getProcessCpuTime() {
+		if (PROCESS_CPU_TIME == null
+				|| !PROCESS_CPU_TIME.getDeclaringClass().isInstance(
+						operatingSystem)) {
+			return -1;
+		}
+		try {
+			return ((Number) PROCESS_CPU_TIME.invoke(operatingSystem))
+					.longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.openimaj.image.MBFImage;
+
+/**
+ * Base class for frame sources replaying a fixed sequence of images in a loop,
+ * without any capture device. Frames are returned at the given frame rate, or
+ * as fast as they are requested if the frame rate is 0.
+ */
+public abstract class ReplayFrameSource implements FrameSource {
+
+	@Getter
+	@Setter
+	private volatile double frameRate;
+	/**
+	 * Number of frames after which the source is exhausted, 0 for no limit.
+	 */
+	@Getter
+	@Setter
+	private volatile long maxFrames;
+
+	private long startTime;
+	private long sentFrames;
+
+	@Override
+	public final void open(int requestedWidth, int requestedHeight)
+			throws IOException {
+		load(requestedWidth, requestedHeight);
+		sentFrames = 0;
+		startTime = System.nanoTime();
+	}
+
+	@Override
+	public MBFImage nextFrame() throws InterruptedException {
+		if (maxFrames > 0 && sentFrames >= maxFrames) {
+			return null;
+		}
+		if (frameRate > 0) {
+			long dueTime = startTime
+					+ (long) (sentFrames * TimeUnit.SECONDS.toNanos(1) / frameRate);
+			long delay = dueTime - System.nanoTime();
+			if (delay > 0) {
+				TimeUnit.NANOSECONDS.sleep(delay);
+			}
+		}
+		MBFImage res = getFrame(sentFrames);
+		sentFrames++;
+		return res;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Prepares the images to replay.
+	 */
+	protected abstract void load(int requestedWidth, int requestedHeight)
+			throws IOException;
+
+	/**
+	 * Returns the image for the frame with the given index (starting at 0 when
+	 * the source is opened).
+	 */
+	protected abstract MBFImage getFrame(long index);
+
+}
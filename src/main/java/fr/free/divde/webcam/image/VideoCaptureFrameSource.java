@@ -0,0 +1,67 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.image;
+
+import java.io.IOException;
+
+import org.openimaj.image.MBFImage;
+import org.openimaj.video.capture.VideoCapture;
+
+/**
+ * Frame source reading from the default video capture device.
+ */
+public class VideoCaptureFrameSource implements FrameSource {
+
+	private VideoCapture capture;
+
+	@Override
+	public void open(int requestedWidth, int requestedHeight)
+			throws IOException {
+		try {
+			capture = new VideoCapture(requestedWidth, requestedHeight);
+		} catch (Exception e) {
+			throw new IOException("Unable to open the video capture device.",
+					e);
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return capture.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return capture.getHeight();
+	}
+
+	@Override
+	public MBFImage nextFrame() {
+		return capture.getNextFrame();
+	}
+
+	@Override
+	public void close() {
+		if (capture != null) {
+			capture.stopCapture();
+			capture = null;
+		}
+	}
+
+}
@@ -18,27 +18,40 @@
 
 package fr.free.divde.webcam.image;
 
-import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.event.EventListenerList;
 
 import lombok.Getter;
 import lombok.Setter;
 
-import org.openimaj.image.ImageUtilities;
 import org.openimaj.image.MBFImage;
-import org.openimaj.video.capture.VideoCapture;
+
+import fr.free.divde.webcam.metrics.PipelineMetrics;
 
 public final class Webcam {
 	private static final int STOP_WAIT_DELAY = 1000;
+	private static final int FRAME_POOL_CAPACITY = 8;
 
 	private EventListenerList listenerList = new EventListenerList();
+	private Map<ImageListener, DeliveryLane> lanes = new ConcurrentHashMap<ImageListener, DeliveryLane>();
 	@Getter
 	@Setter
 	private int requestedWidth;
 	@Getter
 	@Setter
 	private int requestedHeight;
+	@Getter
+	@Setter
+	private volatile FrameSource frameSource = new VideoCaptureFrameSource();
+	@Getter
+	private volatile long capturedFrames;
+	@Getter
+	private final FramePool framePool = new FramePool(FRAME_POOL_CAPACITY);
+	private final RateGovernor governor = new RateGovernor();
+	@Getter
+	private final PipelineMetrics metrics = new PipelineMetrics();
 	private volatile boolean requestedStop;
 
 	private Thread thread;
@@ -67,13 +80,15 @@ public final class Webcam {
 	}
 
 	public synchronized void stopCapture() {
-		if (thread == null) {
+		// the capture thread clears the field when it ends
+		Thread captureThread = thread;
+		if (captureThread == null) {
 			return;
 		}
 		requestedStop = true;
-		thread.interrupt();
+		captureThread.interrupt();
 		try {
-			thread.join(STOP_WAIT_DELAY);
+			captureThread.join(STOP_WAIT_DELAY);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -86,33 +101,59 @@ public final class Webcam {
 	}
 
 	private void captureThread() {
-		VideoCapture capture = null;
+		FrameSource source = frameSource;
+		boolean opened = false;
 		try {
-			capture = new VideoCapture(requestedWidth, requestedHeight);
-			fireStartCapture(capture.getWidth(), capture.getHeight());
+			source.open(requestedWidth, requestedHeight);
+			opened = true;
+			fireStartCapture(source.getWidth(), source.getHeight());
+			governor.reset();
 			while (!requestedStop) {
-				MBFImage image = capture.getNextFrame();
-				BufferedImage bufferedImage = ImageUtilities
-						.createBufferedImage(image);
-				fireNextFrame(bufferedImage);
+				governor.awaitNextFrame();
+				long start = System.nanoTime();
+				MBFImage image = source.nextFrame();
+				if (image == null) {
+					break;
+				}
+				long grabbed = System.nanoTime();
+				Frame frame = framePool.createFrame(image, capturedFrames);
+				capturedFrames++;
+				long converted = System.nanoTime();
+				try {
+					fireNextFrame(frame);
+				} finally {
+					frame.release();
+				}
+				long dispatched = System.nanoTime();
+				metrics.frameCaptured();
+				metrics.getGrab().record(grabbed - start);
+				metrics.getConversion().record(converted - grabbed);
+				metrics.getDispatch().record(dispatched - converted);
 			}
+		} catch (InterruptedException e) {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
-			if (capture != null) {
-				capture.stopCapture();
+			if (opened) {
+				source.close();
+			}
+			for (DeliveryLane lane : lanes.values()) {
+				lane.stop();
 			}
 			fireStopCapture();
 			thread = null;
 		}
 	}
 
-	private void fireNextFrame(BufferedImage bufferedImage) {
+	private void fireNextFrame(Frame frame) {
 		Object[] listeners = listenerList.getListenerList();
 		for (int i = listeners.length - 2; i >= 0; i -= 2) {
 			if (listeners[i] == ImageListener.class
 					|| listeners[i] == CaptureListener.class) {
-				((ImageListener) listeners[i + 1]).nextFrame(bufferedImage);
+				DeliveryLane lane = lanes.get(listeners[i + 1]);
+				if (lane != null) {
+					lane.offer(frame);
+				}
 			}
 		}
 	}
@@ -140,20 +181,194 @@ public final class Webcam {
 		return thread != null;
 	}
 
+	public double getTargetFrameRate() {
+		return governor.getTargetFrameRate();
+	}
+
+	/**
+	 * Sets the maximum number of frames captured per second, 0 for no limit.
+	 */
+	public void setTargetFrameRate(double targetFrameRate) {
+		governor.setTargetFrameRate(targetFrameRate);
+	}
+
+	public double getIdleFrameRate() {
+		return governor.getIdleFrameRate();
+	}
+
+	/**
+	 * Sets the maximum number of frames captured per second when no activity
+	 * was reported recently (see {@link #reportActivity()}), 0 to always use
+	 * the target frame rate.
+	 */
+	public void setIdleFrameRate(double idleFrameRate) {
+		governor.setIdleFrameRate(idleFrameRate);
+	}
+
+	public double getCpuBudget() {
+		return governor.getCpuBudget();
+	}
+
+	/**
+	 * Sets the fraction of one processor core (for example 0.5) that the
+	 * capture and the processing of frames may use, 0 for no limit. Frames are
+	 * captured less often when the budget is exceeded.
+	 */
+	public void setCpuBudget(double cpuBudget) {
+		governor.setCpuBudget(cpuBudget);
+	}
+
+	public long getActivityTimeout() {
+		return governor.getActivityTimeout();
+	}
+
+	/**
+	 * Sets the delay in milliseconds after the last reported activity before
+	 * switching to the idle frame rate.
+	 */
+	public void setActivityTimeout(long activityTimeout) {
+		governor.setActivityTimeout(activityTimeout);
+	}
+
+	/**
+	 * Reports that something interesting was found in the frames, such as a
+	 * barcode, so that they are captured at the target frame rate for at least
+	 * the activity timeout.
+	 */
+	public void reportActivity() {
+		governor.reportActivity();
+	}
+
+	/**
+	 * Returns true if no activity was reported during the activity timeout.
+	 */
+	public boolean isIdle() {
+		return governor.isIdle();
+	}
+
+	/**
+	 * Returns the average fraction of one processor core used by the process
+	 * between two frames.
+	 */
+	public double getCpuUsage() {
+		return governor.getCpuUsage();
+	}
+
+	/**
+	 * Returns the average time in milliseconds spent waiting for a frame from
+	 * the frame source, since the metrics were last reset.
+	 */
+	public double getGrabTime() {
+		return metrics.getGrab().getMean();
+	}
+
+	/**
+	 * Returns the average time in milliseconds spent converting a frame,
+	 * since the metrics were last reset.
+	 */
+	public double getConversionTime() {
+		return metrics.getConversion().getMean();
+	}
+
+	/**
+	 * Returns the average time in milliseconds spent giving a frame to the
+	 * listeners, since the metrics were last reset.
+	 */
+	public double getDispatchTime() {
+		return metrics.getDispatch().getMean();
+	}
+
+	/**
+	 * Returns the total time in milliseconds during which the capture was
+	 * paused to respect the frame rates and the CPU budget.
+	 */
+	public long getThrottledTime() {
+		return governor.getThrottledTime();
+	}
+
+	/**
+	 * Returns the number of frames which were delivered to the given listener.
+	 */
+	public long getDeliveredFrames(ImageListener listener) {
+		DeliveryLane lane = lanes.get(listener);
+		return lane != null ? lane.getDeliveredFrames() : 0;
+	}
+
+	/**
+	 * Returns the number of frames which were not delivered to the given
+	 * listener because a newer frame arrived while it was still busy.
+	 */
+	public long getDroppedFrames(ImageListener listener) {
+		DeliveryLane lane = lanes.get(listener);
+		return lane != null ? lane.getDroppedFrames() : 0;
+	}
+
+	/**
+	 * Returns the number of frames which were not given to the given listener
+	 * because they did not match its subscription.
+	 */
+	public long getSkippedFrames(ImageListener listener) {
+		DeliveryLane lane = lanes.get(listener);
+		return lane != null ? lane.getSkippedFrames() : 0;
+	}
+
+	/**
+	 * Returns the subscription of the given listener, which can be changed
+	 * while the listener is registered, or null if the listener is not
+	 * registered.
+	 */
+	public ImageSubscription getSubscription(ImageListener listener) {
+		DeliveryLane lane = lanes.get(listener);
+		return lane != null ? lane.getSubscription() : null;
+	}
+
+	private void addLane(ImageListener listener,
+			ImageSubscription subscription) {
+		if (!lanes.containsKey(listener)) {
+			lanes.put(listener, new DeliveryLane(listener, subscription,
+					metrics));
+		}
+	}
+
+	private void removeLane(ImageListener listener) {
+		DeliveryLane lane = lanes.remove(listener);
+		if (lane != null) {
+			lane.stop();
+		}
+	}
+
 	public void addImageListener(ImageListener listener) {
+		addImageListener(listener, new ImageSubscription());
+	}
+
+	/**
+	 * Registers a listener which receives the frames matching the given
+	 * subscription.
+	 */
+	public synchronized void addImageListener(ImageListener listener,
+			ImageSubscription subscription) {
 		listenerList.add(ImageListener.class, listener);
+		addLane(listener, subscription);
 	}
 
-	public void removeImageListener(ImageListener listener) {
+	public synchronized void removeImageListener(ImageListener listener) {
 		listenerList.remove(ImageListener.class, listener);
+		removeLane(listener);
 	}
 
 	public void addCaptureListener(CaptureListener listener) {
+		addCaptureListener(listener, new ImageSubscription());
+	}
+
+	public synchronized void addCaptureListener(CaptureListener listener,
+			ImageSubscription subscription) {
 		listenerList.add(CaptureListener.class, listener);
+		addLane(listener, subscription);
 	}
 
-	public void removeCaptureListener(CaptureListener listener) {
+	public synchronized void removeCaptureListener(CaptureListener listener) {
 		listenerList.remove(CaptureListener.class, listener);
+		removeLane(listener);
 	}
 
 }
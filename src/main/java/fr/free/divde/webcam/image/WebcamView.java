@@ -20,16 +20,31 @@
 package fr.free.divde.webcam.image;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
-import java.lang.reflect.InvocationTargetException;
 
 import javax.swing.JLabel;
 import javax.swing.SwingUtilities;
 
 import lombok.Getter;
+import lombok.Setter;
 
+import fr.free.divde.webcam.metrics.PipelineMetrics;
+
+/**
+ * Displays the captured frames, scaled to fit the component.
+ *
+ * Frames are scaled on the delivery thread of the view, into a back buffer of
+ * the display size compatible with the screen, which is then swapped with the
+ * front buffer. The event dispatch thread only copies the front buffer, so the
+ * cost of the preview depends on the display size rather than on the camera
+ * resolution. The producer never waits for the event dispatch thread: repaint
+ * requests are coalesced by Swing, and only the newest frame is painted.
+ */
 public class WebcamView extends JLabel {
 	private static final long serialVersionUID = -5173502206466167696L;
 
@@ -47,92 +62,120 @@ public class WebcamView extends JLabel {
 
 	@Getter
 	private CaptureListener captureListener = initCaptureListener();
-	private Runnable repainter = initRepainter();
 	private boolean capturing = false;
-	private volatile BufferedImage image;
-	private int srcWidth, srcHeight, destX1, destY1, destX2, destY2,
-			imageWidth, imageHeight;
+	@Getter
+	@Setter
+	private volatile PipelineMetrics metrics = new PipelineMetrics();
+	private int srcWidth, srcHeight, destX1, destY1, destX2, destY2;
+	// written on the event dispatch thread, read on the delivery thread
+	private volatile int imageWidth, imageHeight;
+
+	// the following fields are guarded by buffersLock
+	private final Object buffersLock = new Object();
+	private BufferedImage frontBuffer;
+	private boolean frontBufferValid;
+
+	// only used on the delivery thread
+	private BufferedImage backBuffer;
 
 	private CaptureListener initCaptureListener() {
 		return new CaptureListener() {
 
 			@Override
 			public void startCapture(final int width, final int height) {
-				try {
-					SwingUtilities.invokeAndWait(new Runnable() {
-						@Override
-						public void run() {
-							capturing = true;
-							srcWidth = width;
-							srcHeight = height;
-							computeSizes();
-						}
-					});
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (InvocationTargetException e) {
-					e.printStackTrace();
-				}
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						capturing = true;
+						srcWidth = width;
+						srcHeight = height;
+						computeSizes();
+					}
+				});
 			}
 
 			@Override
-			public void nextFrame(BufferedImage newImage) {
+			public void nextFrame(Frame frame) {
 				assert !SwingUtilities.isEventDispatchThread();
-				image = newImage;
-				try {
-					SwingUtilities.invokeAndWait(repainter);
-				} catch (InterruptedException ex) {
-				} catch (InvocationTargetException ex) {
-					ex.printStackTrace();
+				int width = imageWidth;
+				int height = imageHeight;
+				if (width <= 0 || height <= 0) {
+					return;
 				}
-				image = null;
+				long start = System.nanoTime();
+				scaleFrame(frame, width, height);
+				metrics.getPaint().recordSince(start);
+				repaint();
 			}
 
 			@Override
 			public void stopCapture() {
-				try {
-					SwingUtilities.invokeAndWait(new Runnable() {
-						@Override
-						public void run() {
-							capturing = false;
-							repaint();
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						capturing = false;
+						synchronized (buffersLock) {
+							frontBufferValid = false;
 						}
-					});
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (InvocationTargetException e) {
-					e.printStackTrace();
-				}
+						repaint();
+					}
+				});
 			}
 		};
 	}
 
-	private Runnable initRepainter() {
-		return new Runnable() {
+	/**
+	 * Scales the given frame into the back buffer, and swaps it with the
+	 * front buffer.
+	 */
+	private void scaleFrame(Frame frame, int width, int height) {
+		if (backBuffer == null || backBuffer.getWidth() != width
+				|| backBuffer.getHeight() != height) {
+			backBuffer = createBuffer(width, height);
+		}
+		Graphics2D g = backBuffer.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(frame.getBufferedImage(), 0, 0, width, height, null);
+		} finally {
+			g.dispose();
+		}
+		synchronized (buffersLock) {
+			BufferedImage swap = frontBuffer;
+			frontBuffer = backBuffer;
+			frontBufferValid = true;
+			backBuffer = swap;
+		}
+	}
 
-			@Override
-			public void run() {
-				paintImmediately(destX1, destY1, imageWidth, imageHeight);
-			}
-		};
+	private BufferedImage createBuffer(int width, int height) {
+		GraphicsConfiguration configuration = getGraphicsConfiguration();
+		if (configuration != null) {
+			return configuration.createCompatibleImage(width, height);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 	}
 
 	private void computeSizes() {
 		int destWidth = this.getWidth();
 		int destHeight = this.getHeight();
 		// first try to match height and see if width fits:
-		imageWidth = srcWidth * destHeight / srcHeight;
-		if (imageWidth > destWidth) {
-			imageHeight = srcHeight * destWidth / srcWidth;
-			imageWidth = destWidth;
+		int width = srcWidth * destHeight / srcHeight;
+		int height;
+		if (width > destWidth) {
+			height = srcHeight * destWidth / srcWidth;
+			width = destWidth;
 		} else {
-			imageHeight = destHeight;
+			height = destHeight;
 		}
 		// then compute coordinates:
-		destX1 = (destWidth - imageWidth) / 2;
-		destY1 = (destHeight - imageHeight) / 2;
-		destX2 = destX1 + imageWidth;
-		destY2 = destY1 + imageHeight;
+		destX1 = (destWidth - width) / 2;
+		destY1 = (destHeight - height) / 2;
+		destX2 = destX1 + width;
+		destY2 = destY1 + height;
+		imageWidth = width;
+		imageHeight = height;
 	}
 
 	@Override
@@ -143,9 +186,13 @@ public class WebcamView extends JLabel {
 	@Override
 	public void paintComponent(Graphics g) {
 		if (capturing) {
-			if (image != null) {
-				g.drawImage(image, destX1, destY1, destX2, destY2, 0, 0,
-						srcWidth, srcHeight, null);
+			synchronized (buffersLock) {
+				if (frontBufferValid) {
+					// the buffer has the size of the previous frame if the
+					// component was just resized
+					g.drawImage(frontBuffer, destX1, destY1, destX2 - destX1,
+							destY2 - destY1, null);
+				}
 			}
 			// in case of horizontal strips at the top and bottom:
 			g.clearRect(0, 0, this.getWidth(), destY1);
@@ -0,0 +1,97 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.js;
+
+import netscape.javascript.JSException;
+import netscape.javascript.JSObject;
+
+/**
+ * JavaScript callback described by an object with an fn function, and
+ * optional scope and arg properties: the function is called with scope as
+ * this, and arg after the other arguments. The properties are read once, when
+ * the callback is resolved, instead of on each call.
+ */
+public final class JSCallback {
+
+	private final JSObject function;
+	private final JSObject scope;
+	private final Object arg;
+
+	private JSCallback(JSObject function, JSObject scope, Object arg) {
+		this.function = function;
+		this.scope = scope;
+		this.arg = arg;
+	}
+
+	/**
+	 * Reads the properties of the given callback object, or returns null if
+	 * callbackObject is null. The scope defaults to the given window.
+	 */
+	public static JSCallback resolve(JSObject callbackObject, JSObject window) {
+		if (callbackObject == null) {
+			return null;
+		}
+		synchronized (JSObject.class) {
+			JSObject function = (JSObject) getProperty(callbackObject, "fn",
+					null);
+			if (function == null) {
+				throw new IllegalArgumentException(
+						"The callback has no fn property.");
+			}
+			return new JSCallback(function, (JSObject) getProperty(
+					callbackObject, "scope", window), getProperty(
+					callbackObject, "arg", null));
+		}
+	}
+
+	/**
+	 * Returns a callback for a function which already applies the scope and
+	 * replaces its last argument with arg, as created by {@link JSMarshaller}
+	 * .
+	 */
+	static JSCallback bound(JSObject function) {
+		return new JSCallback(function, null, null);
+	}
+
+	static Object getProperty(JSObject object, String propertyName,
+			Object defaultValue) {
+		try {
+			Object res = object.getMember(propertyName);
+			if (res == null) {
+				return defaultValue;
+			}
+			return res;
+		} catch (JSException e) {
+			return defaultValue;
+		}
+	}
+
+	public JSObject getFunction() {
+		return function;
+	}
+
+	public JSObject getScope() {
+		return scope;
+	}
+
+	public Object getArg() {
+		return arg;
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.js;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import netscape.javascript.JSObject;
+
+import fr.free.divde.webcam.metrics.PipelineMetrics;
+
+/**
+ * Queue of the calls from Java to JavaScript callbacks. Events can be posted
+ * from any thread; all the events pending when the event dispatch thread
+ * runs the queue are sent with a single call to a dispatcher function, which
+ * calls each callback in turn. Under high event rates, many events thus share
+ * one crossing of the Java to JavaScript bridge, and one acquisition of its
+ * global lock.
+ */
+public final class JSEventQueue {
+
+	/**
+	 * Takes, for each event: the function, the scope, the last argument, the
+	 * number of other arguments, a bit mask of the arguments which are JSON
+	 * strings, and the arguments.
+	 */
+	private static final String DISPATCHER = "(function(){"
+			+ "var parse=typeof JSON!=='undefined'?JSON.parse:function(s){return eval('('+s+')')};"
+			+ "var i=0;while(i<arguments.length){"
+			+ "var fn=arguments[i],scope=arguments[i+1],last=arguments[i+2],n=arguments[i+3],mask=arguments[i+4],args=[];"
+			+ "for(var j=0;j<n;j++){var a=arguments[i+5+j];args.push(mask&(1<<j)?parse(a):a)}"
+			+ "args.push(last);i+=5+n;"
+			+ "try{fn.apply(scope,args)}catch(e){if(window.console){console.error(e)}}"
+			+ "}})";
+	private static final int MAX_ARGS = 31;
+
+	@Getter
+	@Setter
+	private volatile JSObject window;
+	@Getter
+	@Setter
+	private volatile PipelineMetrics metrics = new PipelineMetrics();
+
+	// the following fields are guarded by this
+	private List<Event> pendingEvents = new ArrayList<Event>();
+	private boolean drainScheduled;
+
+	// only used on the event dispatch thread
+	private JSObject dispatcher;
+
+	private final AtomicLong sentEvents = new AtomicLong();
+	private final AtomicLong crossings = new AtomicLong();
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Queues a call of the given callback with the given arguments. Arguments
+	 * which are {@link JSONValue}s are parsed in JavaScript. Does nothing if
+	 * callback is null.
+	 */
+	public void post(JSCallback callback, Object... args) {
+		if (callback == null) {
+			return;
+		}
+		if (args.length > MAX_ARGS) {
+			throw new IllegalArgumentException("Too many arguments.");
+		}
+		synchronized (this) {
+			pendingEvents.add(new Event(callback, args));
+			if (drainScheduled) {
+				return;
+			}
+			drainScheduled = true;
+		}
+		SwingUtilities.invokeLater(drainer);
+	}
+
+	private void drain() {
+		List<Event> events;
+		synchronized (this) {
+			events = pendingEvents;
+			pendingEvents = new ArrayList<Event>();
+			drainScheduled = false;
+		}
+		JSObject currentWindow = window;
+		if (events.isEmpty() || currentWindow == null) {
+			return;
+		}
+		List<Object> callArgs = new ArrayList<Object>();
+		// the dispatcher is called with itself as this
+		callArgs.add(null);
+		for (Event event : events) {
+			event.appendTo(callArgs);
+		}
+		long start = System.nanoTime();
+		synchronized (JSObject.class) {
+			try {
+				if (dispatcher == null) {
+					dispatcher = (JSObject) currentWindow.eval(DISPATCHER);
+				}
+				callArgs.set(0, dispatcher);
+				dispatcher.call("call", callArgs.toArray());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		sentEvents.addAndGet(events.size());
+		crossings.incrementAndGet();
+		metrics.getCallback().recordSince(start);
+	}
+
+	/**
+	 * Returns the number of events sent to JavaScript.
+	 */
+	public long getSentEvents() {
+		return sentEvents.get();
+	}
+
+	/**
+	 * Returns the number of calls made to send the events to JavaScript.
+	 */
+	public long getCrossings() {
+		return crossings.get();
+	}
+
+	private static final class Event {
+
+		private final JSCallback callback;
+		private final Object[] args;
+
+		public Event(JSCallback callback, Object[] args) {
+			this.callback = callback;
+			this.args = args;
+		}
+
+		public void appendTo(List<Object> callArgs) {
+			callArgs.add(callback.getFunction());
+			callArgs.add(callback.getScope());
+			callArgs.add(callback.getArg());
+			callArgs.add(args.length);
+			int jsonMask = 0;
+			for (int i = 0; i < args.length; i++) {
+				if (args[i] instanceof JSONValue) {
+					jsonMask |= 1 << i;
+				}
+			}
+			callArgs.add(jsonMask);
+			for (Object arg : args) {
+				callArgs.add(arg instanceof JSONValue ? ((JSONValue) arg)
+						.getJSON() : arg);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.js;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import netscape.javascript.JSObject;
+
+/**
+ * Reads the parameter objects given by JavaScript to the methods of the
+ * applet.
+ *
+ * Reading each property with {@link JSObject#getMember(String)} costs a
+ * crossing of the Java to JavaScript bridge, and its global lock, for each
+ * property, and even more for nested objects. Instead, a marshalling function
+ * serializes the whole object to JSON in a single call, and the JSON is
+ * parsed in Java. Callback objects cannot be serialized: they are replaced in
+ * the JSON by their index in an array of functions already bound to their
+ * scope and arg, and each of them costs one more crossing.
+ *
+ * Browsers without JSON support fall back to reading the properties one by
+ * one.
+ */
+public final class JSMarshaller {
+
+	/**
+	 * Returns the JSON string if there is no callback, an array with the JSON
+	 * string followed by the bound callbacks otherwise, and null if JSON is
+	 * not supported.
+	 */
+	private static final String MARSHALLER = "(function(o){"
+			+ "if(typeof JSON==='undefined'){return null}"
+			+ "var callbacks=[];"
+			+ "var json=JSON.stringify(o,function(k,v){"
+			+ "if(v&&typeof v==='object'&&typeof v.fn==='function'){"
+			+ "var fn=v.fn,scope=v.scope||window,arg=v.arg===undefined?null:v.arg;"
+			+ "callbacks.push(function(){var a=[].slice.call(arguments);a[a.length-1]=arg;return fn.apply(scope,a)});"
+			+ "return {$callback:callbacks.length}}"
+			+ "return v});"
+			+ "return callbacks.length?[json].concat(callbacks):json})";
+	private static final String GET_KEYS = "(function(){var res=[];for(var key in this){if(this.hasOwnProperty(key)){res.push(key)}}return res;})";
+	private static final String CALLBACK_KEY = "$callback";
+
+	@Getter
+	@Setter
+	private volatile JSObject window;
+
+	// the following fields are guarded by JSObject.class
+	private JSObject marshaller;
+	private JSObject getKeys;
+
+	/**
+	 * Reads the given parameter object, which can be null.
+	 */
+	public JSOptions read(JSObject parameters) {
+		if (parameters == null) {
+			return new JSOptions(Collections.<String, Object> emptyMap());
+		}
+		synchronized (JSObject.class) {
+			if (marshaller == null) {
+				marshaller = (JSObject) window.eval(MARSHALLER);
+			}
+			Object res = marshaller.call("call", new Object[] { marshaller,
+					parameters });
+			if (res == null) {
+				return readPerProperty(parameters);
+			}
+			JSObject callbacks = null;
+			String json;
+			if (res instanceof String) {
+				json = (String) res;
+			} else {
+				callbacks = (JSObject) res;
+				json = (String) callbacks.getSlot(0);
+			}
+			Object values = Json.parse(json);
+			if (!(values instanceof Map)) {
+				throw new IllegalArgumentException(
+						"The parameters must be an object.");
+			}
+			return new JSOptions(toOptionsMap(values, callbacks));
+		}
+	}
+
+	/**
+	 * Replaces the callback placeholders by the bound callbacks.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> toOptionsMap(Object values,
+			JSObject callbacks) {
+		Map<String, Object> map = (Map<String, Object>) values;
+		for (Entry<String, Object> entry : map.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof Map) {
+				Map<String, Object> child = (Map<String, Object>) value;
+				Object index = child.get(CALLBACK_KEY);
+				if (index instanceof Number && callbacks != null) {
+					entry.setValue(JSCallback.bound((JSObject) callbacks
+							.getSlot(((Number) index).intValue())));
+				} else {
+					toOptionsMap(child, callbacks);
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Reads the given parameter object one property at a time, with the same
+	 * result as {@link #read(JSObject)}.
+	 */
+	public JSOptions readPerProperty(JSObject parameters) {
+		synchronized (JSObject.class) {
+			return new JSOptions(convertToMap(parameters));
+		}
+	}
+
+	private Map<String, Object> convertToMap(JSObject jsObject) {
+		if (getKeys == null) {
+			getKeys = (JSObject) window.eval(GET_KEYS);
+		}
+		JSObject keys = (JSObject) getKeys.call("call",
+				new Object[] { jsObject });
+		int size = ((Number) keys.getMember("length")).intValue();
+		List<String> names = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			names.add((String) keys.getSlot(i));
+		}
+		Map<String, Object> res = new HashMap<String, Object>(size);
+		for (String name : names) {
+			Object value = jsObject.getMember(name);
+			if (value instanceof JSObject) {
+				JSObject object = (JSObject) value;
+				if (JSCallback.getProperty(object, "fn", null) != null) {
+					value = JSCallback.resolve(object, window);
+				} else {
+					value = convertToMap(object);
+				}
+			}
+			res.put(name, value);
+		}
+		return res;
+	}
+
+}
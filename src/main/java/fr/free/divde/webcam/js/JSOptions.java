@@ -0,0 +1,100 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.js;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Parameter object received from JavaScript, with typed accessors. Absent and
+ * null properties are reported the same way.
+ */
+public final class JSOptions {
+
+	private final Map<String, Object> values;
+
+	public JSOptions(Map<String, Object> values) {
+		this.values = values;
+	}
+
+	public boolean has(String name) {
+		return values.get(name) != null;
+	}
+
+	private <T> T get(String name, Class<T> type, String typeName) {
+		Object value = values.get(name);
+		if (value == null || type.isInstance(value)) {
+			return type.cast(value);
+		}
+		throw new IllegalArgumentException("The " + name
+				+ " property must be " + typeName + ".");
+	}
+
+	public String getString(String name, String defaultValue) {
+		String res = get(name, String.class, "a string");
+		return res != null ? res : defaultValue;
+	}
+
+	/**
+	 * Returns the given number property, or null if it is absent.
+	 */
+	public Number getNumber(String name) {
+		return get(name, Number.class, "a number");
+	}
+
+	public int getInt(String name, int defaultValue) {
+		Number res = getNumber(name);
+		return res != null ? res.intValue() : defaultValue;
+	}
+
+	public long getLong(String name, long defaultValue) {
+		Number res = getNumber(name);
+		return res != null ? res.longValue() : defaultValue;
+	}
+
+	public float getFloat(String name, float defaultValue) {
+		Number res = getNumber(name);
+		return res != null ? res.floatValue() : defaultValue;
+	}
+
+	/**
+	 * Returns the given boolean property, or null if it is absent.
+	 */
+	public Boolean getBoolean(String name) {
+		return get(name, Boolean.class, "a boolean");
+	}
+
+	/**
+	 * Returns the properties of the given object property, or an empty map if
+	 * it is absent.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> getMap(String name) {
+		Map<String, Object> res = get(name, Map.class, "an object");
+		return res != null ? res : Collections.<String, Object> emptyMap();
+	}
+
+	/**
+	 * Returns the given callback property, or null if it is absent.
+	 */
+	public JSCallback getCallback(String name) {
+		return get(name, JSCallback.class, "a callback object");
+	}
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.js;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser, for the parameter objects sent by JavaScript. Objects
+ * are parsed as maps, arrays as lists, integral numbers as {@link Long}s and
+ * other numbers as {@link Double}s.
+ */
+public final class Json {
+
+	private final String text;
+	private int position;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Parses the given JSON text.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the text is not valid JSON
+	 */
+	public static Object parse(String text) {
+		Json parser = new Json(text);
+		Object res = parser.readValue();
+		parser.skipWhitespace();
+		if (parser.position < text.length()) {
+			throw parser.error("end of text");
+		}
+		return res;
+	}
+
+	private IllegalArgumentException error(String expected) {
+		return new IllegalArgumentException("Invalid JSON: expected "
+				+ expected + " at position " + position + ".");
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length()) {
+			char c = text.charAt(position);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private char peek() {
+		skipWhitespace();
+		if (position >= text.length()) {
+			throw error("a value");
+		}
+		return text.charAt(position);
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("'" + c + "'");
+		}
+		position++;
+	}
+
+	private Object readValue() {
+		char c = peek();
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			return readLiteral("true", Boolean.TRUE);
+		case 'f':
+			return readLiteral("false", Boolean.FALSE);
+		case 'n':
+			return readLiteral("null", null);
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return readNumber();
+			}
+			throw error("a value");
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		expect('{');
+		Map<String, Object> res = new LinkedHashMap<String, Object>();
+		if (peek() == '}') {
+			position++;
+			return res;
+		}
+		while (true) {
+			if (peek() != '"') {
+				throw error("a property name");
+			}
+			String name = readString();
+			expect(':');
+			res.put(name, readValue());
+			if (peek() == ',') {
+				position++;
+			} else {
+				expect('}');
+				return res;
+			}
+		}
+	}
+
+	private List<Object> readArray() {
+		expect('[');
+		List<Object> res = new ArrayList<Object>();
+		if (peek() == ']') {
+			position++;
+			return res;
+		}
+		while (true) {
+			res.add(readValue());
+			if (peek() == ',') {
+				position++;
+			} else {
+				expect(']');
+				return res;
+			}
+		}
+	}
+
+	private String readString() {
+		expect('"');
+		StringBuilder res = new StringBuilder();
+		while (position < text.length()) {
+			char c = text.charAt(position++);
+			if (c == '"') {
+				return res.toString();
+			}
+			if (c != '\\') {
+				res.append(c);
+				continue;
+			}
+			if (position >= text.length()) {
+				break;
+			}
+			c = text.charAt(position++);
+			switch (c) {
+			case 'b':
+				res.append('\b');
+				break;
+			case 'f':
+				res.append('\f');
+				break;
+			case 'n':
+				res.append('\n');
+				break;
+			case 'r':
+				res.append('\r');
+				break;
+			case 't':
+				res.append('\t');
+				break;
+			case 'u':
+				if (position + 4 > text.length()) {
+					throw error("4 hexadecimal digits");
+				}
+				try {
+					res.append((char) Integer.parseInt(
+							text.substring(position, position + 4), 16));
+				} catch (NumberFormatException e) {
+					throw error("4 hexadecimal digits");
+				}
+				position += 4;
+				break;
+			default:
+				// '"', '\\' and '/'
+				res.append(c);
+			}
+		}
+		throw error("'\"'");
+	}
+
+	private Object readLiteral(String literal, Object value) {
+		if (!text.startsWith(literal, position)) {
+			throw error(literal);
+		}
+		position += literal.length();
+		return value;
+	}
+
+	private Number readNumber() {
+		int start = position;
+		boolean integral = true;
+		while (position < text.length()) {
+			char c = text.charAt(position);
+			if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else if (!(c >= '0' && c <= '9') && c != '-' && c != '+') {
+				break;
+			}
+			position++;
+		}
+		String number = text.substring(start, position);
+		try {
+			if (integral && number.length() < 19) {
+				return Long.valueOf(number);
+			}
+			return Double.valueOf(number);
+		} catch (NumberFormatException e) {
+			position = start;
+			throw error("a number");
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.Getter;
+
+/**
+ * Histogram of the durations of a stage of the pipeline. Recording a duration
+ * neither allocates nor locks: it only increments the counter of the bucket
+ * of the duration, the buckets being powers of 2 of microseconds. Percentiles
+ * are therefore approximated by the upper bound of their bucket, which is at
+ * most twice the real value.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+
+	private static final int BUCKETS = 32;
+	private static final double MICROS_PER_MILLI = 1000;
+
+	@Getter
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a duration, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long micros = nanos / 1000;
+		// bucket i holds the durations from 2^(i-1) (included) to 2^i
+		// (excluded) microseconds, and bucket 0 the durations below 1
+		// microsecond
+		int bucket = Math.min(BUCKETS - 1,
+				64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Records the duration since the given value of {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+	}
+
+	@Override
+	public double getMax() {
+		return maxNanos.get() / 1e6;
+	}
+
+	/**
+	 * Returns the duration in milliseconds below which the given fraction
+	 * (between 0 and 1) of the recorded durations are.
+	 */
+	public double getPercentile(double fraction) {
+		long n = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min((1L << i) / MICROS_PER_MILLI, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public double getPercentile50() {
+		return getPercentile(0.5);
+	}
+
+	@Override
+	public double getPercentile95() {
+		return getPercentile(0.95);
+	}
+
+	@Override
+	public double getPercentile99() {
+		return getPercentile(0.99);
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	/**
+	 * Appends the statistics of this histogram to the given builder, as a JSON
+	 * object.
+	 */
+	void appendJSON(StringBuilder builder) {
+		builder.append("{\"count\":").append(getCount());
+		builder.append(",\"mean\":").append(getMean());
+		builder.append(",\"p50\":").append(getPercentile50());
+		builder.append(",\"p95\":").append(getPercentile95());
+		builder.append(",\"p99\":").append(getPercentile99());
+		builder.append(",\"max\":").append(getMax());
+		builder.append('}');
+	}
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.Getter;
+
+/**
+ * Counters and latency histograms of each stage of the capture and decoding
+ * pipeline:
+ * <ul>
+ * <li>grab: waiting for a frame from the frame source,</li>
+ * <li>conversion: converting the frame to RGB and luminance,</li>
+ * <li>dispatch: giving the frame to the listeners,</li>
+ * <li>decode: searching barcodes in a frame,</li>
+ * <li>paint: scaling the frame to the size of the view,</li>
+ * <li>callback: calling a JavaScript callback.</li>
+ * </ul>
+ * Updating the metrics never allocates nor locks, so they can stay enabled.
+ * They can be published as MBeans with {@link #register(String)}.
+ */
+public final class PipelineMetrics implements PipelineMetricsMBean {
+
+	public static final String DOMAIN = "fr.free.divde.webcam";
+
+	@Getter
+	private final LatencyHistogram grab = new LatencyHistogram("grab");
+	@Getter
+	private final LatencyHistogram conversion = new LatencyHistogram(
+			"conversion");
+	@Getter
+	private final LatencyHistogram dispatch = new LatencyHistogram("dispatch");
+	@Getter
+	private final LatencyHistogram decode = new LatencyHistogram("decode");
+	@Getter
+	private final LatencyHistogram paint = new LatencyHistogram("paint");
+	@Getter
+	private final LatencyHistogram callback = new LatencyHistogram("callback");
+	private final LatencyHistogram[] stages = { grab, conversion, dispatch,
+			decode, paint, callback };
+
+	private final AtomicLong capturedFrames = new AtomicLong();
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private final AtomicLong staleFrames = new AtomicLong();
+	private final AtomicLong succeededDecodes = new AtomicLong();
+	private final AtomicLong failedDecodes = new AtomicLong();
+
+	// guarded by this
+	private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+
+	public void frameCaptured() {
+		capturedFrames.incrementAndGet();
+	}
+
+	/**
+	 * Records that a listener did not receive a frame because it was still
+	 * busy with a previous one.
+	 */
+	public void frameDropped() {
+		droppedFrames.incrementAndGet();
+	}
+
+	/**
+	 * Records that a frame was not decoded because all the decoding threads
+	 * were busy.
+	 */
+	public void frameStale() {
+		staleFrames.incrementAndGet();
+	}
+
+	public void decodeSucceeded() {
+		succeededDecodes.incrementAndGet();
+	}
+
+	public void decodeFailed() {
+		failedDecodes.incrementAndGet();
+	}
+
+	@Override
+	public long getCapturedFrames() {
+		return capturedFrames.get();
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	@Override
+	public long getStaleFrames() {
+		return staleFrames.get();
+	}
+
+	@Override
+	public long getSucceededDecodes() {
+		return succeededDecodes.get();
+	}
+
+	@Override
+	public long getFailedDecodes() {
+		return failedDecodes.get();
+	}
+
+	@Override
+	public void reset() {
+		capturedFrames.set(0);
+		droppedFrames.set(0);
+		staleFrames.set(0);
+		succeededDecodes.set(0);
+		failedDecodes.set(0);
+		for (LatencyHistogram stage : stages) {
+			stage.reset();
+		}
+	}
+
+	/**
+	 * Returns all the metrics as a JSON object. The counters are at the top
+	 * level, and the statistics of each stage (count, mean, p50, p95, p99 and
+	 * max, in milliseconds) are in the stages object.
+	 */
+	@Override
+	public String getStats() {
+		StringBuilder res = new StringBuilder(512);
+		res.append("{\"capturedFrames\":").append(getCapturedFrames());
+		res.append(",\"droppedFrames\":").append(getDroppedFrames());
+		res.append(",\"staleFrames\":").append(getStaleFrames());
+		res.append(",\"succeededDecodes\":").append(getSucceededDecodes());
+		res.append(",\"failedDecodes\":").append(getFailedDecodes());
+		res.append(",\"stages\":{");
+		for (int i = 0; i < stages.length; i++) {
+			if (i > 0) {
+				res.append(',');
+			}
+			res.append('"').append(stages[i].getName()).append("\":");
+			stages[i].appendJSON(res);
+		}
+		res.append("}}");
+		return res.toString();
+	}
+
+	/**
+	 * Registers these metrics and the histogram of each stage in the platform
+	 * MBean server, under the given name. If one of them cannot be registered
+	 * (for example because the name is already used), the ones already
+	 * registered are removed before the exception is thrown.
+	 */
+	public synchronized void register(String name) throws JMException {
+		unregister();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			register(server, this, getObjectName(name, null));
+			for (LatencyHistogram stage : stages) {
+				register(server, stage, getObjectName(name, stage.getName()));
+			}
+		} catch (JMException e) {
+			unregister();
+			throw e;
+		}
+	}
+
+	private void register(MBeanServer server, Object bean, ObjectName name)
+			throws JMException {
+		server.registerMBean(bean, name);
+		registeredNames.add(name);
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server, if they were
+	 * registered. All of them are removed even if one fails, and the first
+	 * failure is thrown afterwards.
+	 */
+	public synchronized void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		JMException failure = null;
+		for (ObjectName name : registeredNames) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		registeredNames.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static ObjectName getObjectName(String name, String stage)
+			throws JMException {
+		String res = DOMAIN + ":type=Pipeline,name=" + ObjectName.quote(name);
+		if (stage != null) {
+			res += ",stage=" + stage;
+		}
+		return new ObjectName(res);
+	}
+
+}
@@ -0,0 +1,427 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.commons.io.IOUtils;
+
+import fr.free.divde.webcam.image.DataImageUrl;
+import fr.free.divde.webcam.image.Frame;
+
+/**
+ * Uploads frames to HTTP servers from a bounded pool of threads.
+ *
+ * Each frame is encoded straight to the socket, with chunked streaming, so
+ * that the encoded body is never buffered as a whole. Failed uploads are
+ * retried a bounded number of times, encoding the frame again, as a streamed
+ * body cannot be sent twice. Images already compressed because they are
+ * shared with other consumers of the same frame (see
+ * {@link fr.free.divde.webcam.image.EncodedFrameCache}) are sent with
+ * fixed-length streaming instead, which neither copies nor buffers them
+ * again. The response is always read completely and its stream closed,
+ * without disconnecting, so that the connection can be kept alive and reused
+ * by the next upload to the same server.
+ *
+ * Uploads are only retried when sending them again can succeed without
+ * storing the image twice: when the connection or the body fails before the
+ * whole body is sent, or when the server answers with a 5xx, 408 (request
+ * timeout) or 429 (too many requests) status. Other error statuses, and
+ * failures while waiting for the response to a complete body, are reported
+ * immediately.
+ *
+ * Uploads which are neither running nor queued are limited: when the limit
+ * is reached, new uploads are rejected instead of piling up, and the caller
+ * can report this backpressure to the page.
+ */
+public final class ImageUploader {
+
+	private static final int DEFAULT_CHUNK_SIZE = 8192;
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * Maximum number of uploads either running or waiting for a thread.
+	 */
+	@Getter
+	@Setter
+	private volatile int maxPendingUploads = 4;
+	/**
+	 * Number of times a failed upload is retried, when it can be.
+	 */
+	@Getter
+	@Setter
+	private volatile int maxRetries = 2;
+	/**
+	 * Delay in milliseconds before the first retry, doubled for each of the
+	 * next ones.
+	 */
+	@Getter
+	@Setter
+	private volatile long retryDelay = 200;
+	@Getter
+	@Setter
+	private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger pendingUploads = new AtomicInteger();
+	private final AtomicLong succeededUploads = new AtomicLong();
+	private final AtomicLong failedUploads = new AtomicLong();
+	private final AtomicLong rejectedUploads = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	public ImageUploader(int threads) {
+		executor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable);
+						thread.setName("Image upload "
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Returns true if a new upload would be rejected because there are
+	 * already {@link #getMaxPendingUploads()} pending uploads.
+	 */
+	public boolean isFull() {
+		return pendingUploads.get() >= maxPendingUploads;
+	}
+
+	/**
+	 * Queues the upload of the given frame, encoded in the given format and
+	 * quality, to the given URL with the given request headers. The frame is
+	 * retained until the upload is finished.
+	 * 
+	 * Returns false, without calling the callback, if the upload is rejected
+	 * because there are already {@link #getMaxPendingUploads()} pending
+	 * uploads. Once the uploader is shut down, the upload is reported as
+	 * failed to the callback.
+	 */
+	public boolean upload(Frame frame, URL url, String format,
+			final float quality, Map<String, String> headers,
+			UploadCallback callback) {
+		if (!reserve()) {
+			return false;
+		}
+		final Frame uploadedFrame = frame.retain();
+		execute(new Body(url, format, headers) {
+			@Override
+			protected void setStreamingMode(HttpURLConnection connection) {
+				connection.setChunkedStreamingMode(chunkSize);
+			}
+
+			@Override
+			protected void write(OutputStream out) throws IOException {
+				DataImageUrl.writeImage(uploadedFrame.getBufferedImage(),
+						format, quality, out);
+			}
+
+			@Override
+			protected void finished() {
+				uploadedFrame.release();
+			}
+		}, callback);
+		return true;
+	}
+
+	/**
+	 * Queues the upload of the given image, already compressed in the given
+	 * format, to the given URL with the given request headers. The image must
+	 * not be modified afterwards.
+	 * 
+	 * Returns false, without calling the callback, if the upload is rejected
+	 * because there are already {@link #getMaxPendingUploads()} pending
+	 * uploads. Once the uploader is shut down, the upload is reported as
+	 * failed to the callback.
+	 */
+	public boolean upload(final byte[] image, URL url, String format,
+			Map<String, String> headers, UploadCallback callback) {
+		if (!reserve()) {
+			return false;
+		}
+		execute(new Body(url, format, headers) {
+			@Override
+			protected void setStreamingMode(HttpURLConnection connection) {
+				connection.setFixedLengthStreamingMode(image.length);
+			}
+
+			@Override
+			protected void write(OutputStream out) throws IOException {
+				out.write(image);
+			}
+		}, callback);
+		return true;
+	}
+
+	private boolean reserve() {
+		int pending = pendingUploads.incrementAndGet();
+		if (pending > maxPendingUploads) {
+			pendingUploads.decrementAndGet();
+			rejectedUploads.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	private void execute(final Body body, final UploadCallback callback) {
+		Runnable upload = new Runnable() {
+			@Override
+			public void run() {
+				String response;
+				try {
+					response = uploadWithRetries(body);
+				} catch (Exception e) {
+					failedUploads.incrementAndGet();
+					if (callback != null) {
+						callback.uploadFailed(e);
+					}
+					return;
+				} finally {
+					body.finished();
+					pendingUploads.decrementAndGet();
+				}
+				succeededUploads.incrementAndGet();
+				if (callback != null) {
+					callback.uploadSucceeded(response);
+				}
+			}
+		};
+		try {
+			executor.execute(upload);
+		} catch (RejectedExecutionException e) {
+			// the uploader was shut down
+			body.finished();
+			pendingUploads.decrementAndGet();
+			failedUploads.incrementAndGet();
+			if (callback != null) {
+				callback.uploadFailed(e);
+			}
+		}
+	}
+
+	private String uploadWithRetries(Body body) throws IOException,
+			InterruptedException {
+		long delay = retryDelay;
+		int attempt = 0;
+		while (true) {
+			try {
+				return uploadOnce(body);
+			} catch (RetryableException e) {
+				if (attempt >= maxRetries) {
+					throw e.getCause() instanceof IOException ? (IOException) e
+							.getCause() : e;
+				}
+			}
+			attempt++;
+			retries.incrementAndGet();
+			Thread.sleep(delay);
+			delay *= 2;
+		}
+	}
+
+	private String uploadOnce(Body body) throws IOException {
+		URLConnection connection = body.url.openConnection();
+		connection.setDoOutput(true);
+		for (Entry<String, String> entry : body.headers.entrySet()) {
+			connection.setRequestProperty(entry.getKey(), entry.getValue());
+		}
+		if (connection.getRequestProperty("content-type") == null) {
+			// default content type
+			connection.setRequestProperty("content-type", "image/"
+					+ body.format);
+		}
+		HttpURLConnection httpConnection = null;
+		if (connection instanceof HttpURLConnection) {
+			httpConnection = (HttpURLConnection) connection;
+			body.setStreamingMode(httpConnection);
+		}
+		try {
+			OutputStream out = connection.getOutputStream();
+			try {
+				body.write(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// the server cannot have processed an incomplete body
+			throw new RetryableException(e.getMessage(), e);
+		}
+		if (httpConnection != null) {
+			int status = httpConnection.getResponseCode();
+			if (status >= 400) {
+				// the error body must also be consumed for the connection to
+				// be reused
+				String message = "HTTP error " + status + " from " + body.url
+						+ ": " + readFully(httpConnection.getErrorStream());
+				if (status >= 500
+						|| status == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+						|| status == HTTP_TOO_MANY_REQUESTS) {
+					throw new RetryableException(message, null);
+				}
+				throw new IOException(message);
+			}
+		}
+		return readFully(connection.getInputStream());
+	}
+
+	/**
+	 * Reads the given stream until its end and closes it, which lets
+	 * {@link HttpURLConnection} put the connection back in its keep-alive
+	 * cache.
+	 */
+	private static String readFully(InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		try {
+			StringWriter res = new StringWriter();
+			IOUtils.copy(in, res, "UTF-8");
+			return res.toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the executor running the uploads, to run other network tasks
+	 * on the same threads.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public int getUploadThreads() {
+		return executor.getMaximumPoolSize();
+	}
+
+	public void setUploadThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"At least one upload thread is needed.");
+		}
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Returns the number of uploads either running or waiting for a thread.
+	 */
+	public int getPendingUploads() {
+		return pendingUploads.get();
+	}
+
+	public long getSucceededUploads() {
+		return succeededUploads.get();
+	}
+
+	public long getFailedUploads() {
+		return failedUploads.get();
+	}
+
+	/**
+	 * Returns the number of uploads rejected because too many uploads were
+	 * pending.
+	 */
+	public long getRejectedUploads() {
+		return rejectedUploads.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Lets the pending uploads finish, and stops the threads afterwards.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Failure after which the upload can be sent again.
+	 */
+	private static final class RetryableException extends IOException {
+
+		private static final long serialVersionUID = -6129870434186752917L;
+
+		public RetryableException(String message, Throwable cause) {
+			super(message, cause);
+		}
+
+	}
+
+	/**
+	 * Body of an upload, written again for each attempt.
+	 */
+	private abstract static class Body {
+
+		protected final URL url;
+		protected final String format;
+		protected final Map<String, String> headers;
+
+		public Body(URL url, String format, Map<String, String> headers) {
+			this.url = url;
+			this.format = format;
+			this.headers = headers;
+		}
+
+		protected abstract void setStreamingMode(HttpURLConnection connection);
+
+		protected abstract void write(OutputStream out) throws IOException;
+
+		/**
+		 * Called once the upload succeeded or failed for good.
+		 */
+		protected void finished() {
+		}
+
+	}
+
+}
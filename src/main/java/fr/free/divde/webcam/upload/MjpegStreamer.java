@@ -0,0 +1,236 @@
+/*
+ * Webcam applet: gives access to the webcam from a web application.
+ * Copyright (C) 2012 divde (http://divde.free.fr)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.free.divde.webcam.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.commons.io.IOUtils;
+
+import fr.free.divde.webcam.image.DataImageUrl;
+import fr.free.divde.webcam.image.Frame;
+import fr.free.divde.webcam.image.FrameRateLimiter;
+import fr.free.divde.webcam.image.ImageListener;
+import fr.free.divde.webcam.image.Webcam;
+
+/**
+ * Streams the frames it receives to an HTTP server as a multipart MJPEG body
+ * (multipart/x-mixed-replace), in a single chunked POST request.
+ *
+ * Once started, the streamer registers itself as an image listener of the
+ * webcam, and receives frames on its own delivery thread, which only keeps
+ * the latest frame: while a frame is being written to the socket, the next
+ * ones are skipped, so a slow connection lowers the frame rate instead of
+ * adding latency. The frame rate can also be limited with
+ * {@link #setMaxFrameRate(float)}. The streamer removes itself from the
+ * webcam when it is closed or when the stream fails.
+ *
+ * The callback is called once: with the response of the server when the
+ * stream is closed, or with the exception which stopped the stream. Closing
+ * the stream never waits for the network: the end of the body is written and
+ * the response read on the given executor.
+ */
+public final class MjpegStreamer implements ImageListener {
+
+	private static final String BOUNDARY = "webcam-applet-frame";
+	private static final int CHUNK_SIZE = 8192;
+
+	private final Webcam webcam;
+	private final URL url;
+	private final Map<String, String> headers;
+	private final Executor executor;
+	private final UploadCallback callback;
+	/**
+	 * Maximum number of frames sent per second, or 0 for no limit other than
+	 * the speed of the connection.
+	 */
+	@Getter
+	@Setter
+	private volatile float maxFrameRate;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final AtomicLong sentFrames = new AtomicLong();
+	private final AtomicLong skippedFrames = new AtomicLong();
+	/**
+	 * Set without the lock, so that closing the stream does not wait for the
+	 * frame being written.
+	 */
+	private volatile boolean closed;
+
+	// the following fields are guarded by this
+	private HttpURLConnection connection;
+	private OutputStream out;
+	private final FrameRateLimiter rateLimiter = new FrameRateLimiter();
+	private boolean finished;
+
+	/**
+	 * Creates a stream of the frames of the given webcam to the given URL,
+	 * ended on the given executor.
+	 */
+	public MjpegStreamer(Webcam webcam, URL url, Map<String, String> headers,
+			Executor executor, UploadCallback callback) {
+		this.webcam = webcam;
+		this.url = url;
+		this.headers = headers;
+		this.executor = executor;
+		this.callback = callback;
+	}
+
+	public void start() {
+		webcam.addImageListener(this);
+	}
+
+	@Override
+	public void nextFrame(Frame frame) {
+		IOException failure;
+		synchronized (this) {
+			if (closed || finished) {
+				return;
+			}
+			if (!rateLimiter.accept(frame.getCaptureTime(), maxFrameRate)) {
+				skippedFrames.incrementAndGet();
+				return;
+			}
+			try {
+				if (out == null) {
+					open();
+				}
+				// each part needs its length, so the frame is encoded in a
+				// buffer reused for all the frames
+				buffer.reset();
+				DataImageUrl.writeImage(frame.getBufferedImage(), "jpeg",
+						buffer);
+				writeAscii("--" + BOUNDARY
+						+ "\r\nContent-Type: image/jpeg\r\n"
+						+ "Content-Length: " + buffer.size() + "\r\n\r\n");
+				buffer.writeTo(out);
+				writeAscii("\r\n");
+				out.flush();
+				sentFrames.incrementAndGet();
+				return;
+			} catch (IOException e) {
+				finished = true;
+				if (connection != null) {
+					connection.disconnect();
+				}
+				failure = e;
+			}
+		}
+		webcam.removeImageListener(this);
+		callback.uploadFailed(failure);
+	}
+
+	private void open() throws IOException {
+		connection = (HttpURLConnection) url.openConnection();
+		connection.setDoOutput(true);
+		connection.setChunkedStreamingMode(CHUNK_SIZE);
+		for (Entry<String, String> entry : headers.entrySet()) {
+			connection.setRequestProperty(entry.getKey(), entry.getValue());
+		}
+		connection.setRequestProperty("content-type",
+				"multipart/x-mixed-replace; boundary=" + BOUNDARY);
+		out = connection.getOutputStream();
+	}
+
+	private void writeAscii(String text) throws IOException {
+		out.write(text.getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Stops sending frames, and returns without waiting for the network: the
+	 * end of the stream is written on the executor, and the callback is then
+	 * called with the response of the server. Nothing is sent if no frame was
+	 * streamed yet.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		webcam.removeImageListener(this);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				finish();
+			}
+		});
+	}
+
+	/**
+	 * Writes the closing boundary and reads the response. Waits for the frame
+	 * being written, if any.
+	 */
+	private synchronized void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		if (out == null) {
+			return;
+		}
+		try {
+			writeAscii("--" + BOUNDARY + "--\r\n");
+			out.close();
+			int status = connection.getResponseCode();
+			InputStream in = status >= 400 ? connection.getErrorStream()
+					: connection.getInputStream();
+			StringWriter response = new StringWriter();
+			if (in != null) {
+				try {
+					IOUtils.copy(in, response, "UTF-8");
+				} finally {
+					in.close();
+				}
+			}
+			if (status >= 400) {
+				throw new IOException("HTTP error " + status + " from " + url
+						+ ": " + response);
+			}
+			callback.uploadSucceeded(response.toString());
+		} catch (IOException e) {
+			callback.uploadFailed(e);
+		}
+	}
+
+	public long getSentFrames() {
+		return sentFrames.get();
+	}
+
+	/**
+	 * Returns the number of frames skipped to respect the maximum frame rate.
+	 * Frames skipped because the connection was too slow are counted by the
+	 * delivery thread (see {@link fr.free.divde.webcam.image.Webcam#getDroppedFrames(ImageListener)}).
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames.get();
+	}
+
+}